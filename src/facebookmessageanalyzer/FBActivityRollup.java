@@ -0,0 +1,510 @@
+package facebookmessageanalyzer;
+
+import java.io.Serializable;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Precomputed message counts by participant, thread and day, and by hour of
+ * the week.
+ * <p>
+ * The rollup is built once while an FBAnalyzer parses its messages and is
+ * saved along with it. Reports such as messages per user per day, or an
+ * activity heatmap by hour of week, are then answered from small count
+ * arrays without visiting any FBMessage. Daily counts can be rolled up to
+ * weeks, months or years.
+ *
+ * @author Di Tran
+ * @version 0.1
+ */
+public class FBActivityRollup implements Serializable {
+    
+    /**
+     * The serial version ID of this rollup, used for serialization.
+     */
+    private static final long serialVersionUID = 0x5be0cd19137e2179L;
+    
+    /**
+     * The number of hours in a week.
+     */
+    public static final int HOURS_PER_WEEK = 7 * 24;
+    
+    /**
+     * The periods daily counts can be rolled up to.
+     */
+    public enum Granularity {
+        DAY, WEEK, MONTH, YEAR;
+        
+        /**
+         * Returns the first day of the period containing a date. Weeks start
+         * on Monday.
+         *
+         * @param date the date.
+         * @return the first day of its period.
+         */
+        public LocalDate periodStart(LocalDate date) {
+            switch (this) {
+                case WEEK:
+                    return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                case MONTH:
+                    return date.withDayOfMonth(1);
+                case YEAR:
+                    return date.withDayOfYear(1);
+                default:
+                    return date;
+            }
+        }
+        
+        /**
+         * Returns the first day of the period after the one starting on a
+         * date.
+         *
+         * @param periodStart the first day of a period.
+         * @return the first day of the next period.
+         */
+        LocalDate periodEnd(LocalDate periodStart) {
+            switch (this) {
+                case WEEK:
+                    return periodStart.plusWeeks(1);
+                case MONTH:
+                    return periodStart.plusMonths(1);
+                case YEAR:
+                    return periodStart.plusYears(1);
+                default:
+                    return periodStart.plusDays(1);
+            }
+        }
+    }
+    
+    /**
+     * The daily message counts of one participant in one thread, stored only
+     * for days with at least one message.
+     */
+    private static class DaySeries implements Serializable {
+        
+        private static final long serialVersionUID = 0x1f83d9abfb41bd6cL;
+        
+        /**
+         * The participant's id.
+         */
+        private final int user;
+        
+        DaySeries(int user) {
+            this.user = user;
+        }
+        
+        /**
+         * The epoch days with messages, in ascending order.
+         */
+        private int[] days = new int[4];
+        
+        /**
+         * The number of messages on each day in days.
+         */
+        private int[] counts = new int[4];
+        
+        /**
+         * The number of days in use.
+         */
+        private int size;
+        
+        /**
+         * Counts one message on a day.
+         */
+        void add(int day) {
+            int index = Arrays.binarySearch(days, 0, size, day);
+            if (index >= 0) {
+                counts[index]++;
+                return;
+            }
+            index = -index - 1;
+            if (size == days.length) {
+                days = Arrays.copyOf(days, Math.max(4, size * 2));
+                counts = Arrays.copyOf(counts, Math.max(4, size * 2));
+            }
+            System.arraycopy(days, index, days, index + 1, size - index);
+            System.arraycopy(counts, index, counts, index + 1, size - index);
+            days[index] = day;
+            counts[index] = 1;
+            size++;
+        }
+        
+        /**
+         * Releases unused capacity once counting is done.
+         */
+        void trim() {
+            days = Arrays.copyOf(days, size);
+            counts = Arrays.copyOf(counts, size);
+        }
+    }
+    
+    /**
+     * The name of each participant, indexed by id.
+     */
+    private final ArrayList<String> users = new ArrayList<>();
+    
+    /**
+     * The id of each participant.
+     */
+    private final HashMap<String, Integer> userIds = new HashMap<>();
+    
+    /**
+     * The daily counts of each participant of each thread, indexed by
+     * thread. Threads have few participants, so each list is searched
+     * linearly.
+     */
+    private final ArrayList<ArrayList<DaySeries>> series = new ArrayList<>();
+    
+    /**
+     * The epoch day of the first element of totalDays.
+     */
+    private int firstDay;
+    
+    /**
+     * The daily counts of all participants in all threads, one element per
+     * day from firstDay on.
+     */
+    private int[] totalDays = new int[0];
+    
+    /**
+     * The number of messages of each participant in each hour of the week,
+     * Monday 0:00 first.
+     */
+    private final ArrayList<int[]> hoursOfWeek = new ArrayList<>();
+    
+    /**
+     * Builds a rollup of every message of a list of threads. Messages
+     * without a dateTime are not counted. Senders are numbered in order of
+     * their first message.
+     *
+     * @param threads the threads to count.
+     * @return the rollup.
+     */
+    public static FBActivityRollup build(List<FBThread> threads) {
+        FBActivityRollup rollup = new FBActivityRollup();
+        for (int i = 0; i < threads.size(); i++) {
+            for (FBMessage message : threads.get(i).getFBMessages()) {
+                rollup.add(i, message);
+            }
+        }
+        rollup.trim();
+        return rollup;
+    }
+    
+    /**
+     * Counts one message. Senders of undated messages are given an id but
+     * the message is not counted.
+     *
+     * @param threadIndex the index of the message's thread.
+     * @param message the message to count.
+     */
+    public void add(int threadIndex, FBMessage message) {
+        int user = idOf(message.getUser());
+        LocalDateTime dateTime = message.getDateTime();
+        if (dateTime == null)
+            return;
+        while (series.size() <= threadIndex) {
+            series.add(new ArrayList<>(2));
+        }
+        DaySeries days = null;
+        for (DaySeries candidate : series.get(threadIndex)) {
+            if (candidate.user == user) {
+                days = candidate;
+                break;
+            }
+        }
+        if (days == null) {
+            days = new DaySeries(user);
+            series.get(threadIndex).add(days);
+        }
+        int day = (int) dateTime.toLocalDate().toEpochDay();
+        days.add(day);
+        countTotal(day);
+        hoursOfWeek.get(user)[hourOfWeek(dateTime)]++;
+    }
+    
+    /**
+     * Releases unused capacity. Messages may still be added afterwards.
+     */
+    public void trim() {
+        int from = 0;
+        int to = totalDays.length;
+        while (from < to && totalDays[from] == 0) {
+            from++;
+        }
+        while (to > from && totalDays[to - 1] == 0) {
+            to--;
+        }
+        totalDays = Arrays.copyOfRange(totalDays, from, to);
+        firstDay += from;
+        for (ArrayList<DaySeries> thread : series) {
+            thread.trimToSize();
+            for (DaySeries days : thread) {
+                days.trim();
+            }
+        }
+    }
+    
+    /**
+     * Returns the names of all participants that sent a message, indexed by
+     * id.
+     *
+     * @return the participants.
+     */
+    public List<String> getUsers() {
+        return Collections.unmodifiableList(users);
+    }
+    
+    /**
+     * Returns the id of a participant, as used in exported data.
+     *
+     * @param user the participant's name.
+     * @return the id, or -1 if the participant sent no messages.
+     */
+    public int getUserId(String user) {
+        Integer id = userIds.get(user);
+        return id == null ? -1 : id;
+    }
+    
+    /**
+     * Returns the number of messages sent per period by all participants.
+     *
+     * @param granularity the length of each period.
+     * @return the counts keyed by the first day of each period.
+     */
+    public SortedMap<LocalDate, Integer> messagesPer(Granularity granularity) {
+        return rollUp(-1, -1, granularity);
+    }
+    
+    /**
+     * Returns the number of messages sent per period by a participant.
+     *
+     * @param user the participant.
+     * @param granularity the length of each period.
+     * @return the counts keyed by the first day of each period.
+     */
+    public SortedMap<LocalDate, Integer> messagesPer(String user,
+            Granularity granularity) {
+        int id = getUserId(user);
+        if (id < 0)
+            return new TreeMap<>();
+        return rollUp(id, -1, granularity);
+    }
+    
+    /**
+     * Returns the number of messages sent per period by a participant in one
+     * thread.
+     *
+     * @param user the participant.
+     * @param threadIndex the index of the thread.
+     * @param granularity the length of each period.
+     * @return the counts keyed by the first day of each period.
+     */
+    public SortedMap<LocalDate, Integer> messagesPer(String user,
+            int threadIndex, Granularity granularity) {
+        int id = getUserId(user);
+        if (id < 0)
+            return new TreeMap<>();
+        return rollUp(id, threadIndex, granularity);
+    }
+    
+    /**
+     * Returns the number of messages sent per period in one thread.
+     *
+     * @param threadIndex the index of the thread.
+     * @param granularity the length of each period.
+     * @return the counts keyed by the first day of each period.
+     */
+    public SortedMap<LocalDate, Integer> messagesPer(int threadIndex,
+            Granularity granularity) {
+        return rollUp(-1, threadIndex, granularity);
+    }
+    
+    /**
+     * Returns the number of messages sent by all participants in each hour of
+     * the week. Index 0 is Monday 0:00 to 1:00, index 167 is Sunday 23:00 to
+     * 0:00.
+     *
+     * @return the hour-of-week histogram.
+     */
+    public int[] hourOfWeekHistogram() {
+        int[] histogram = new int[HOURS_PER_WEEK];
+        for (int[] hours : hoursOfWeek) {
+            for (int i = 0; i < HOURS_PER_WEEK; i++) {
+                histogram[i] += hours[i];
+            }
+        }
+        return histogram;
+    }
+    
+    /**
+     * Returns the number of messages sent by a participant in each hour of
+     * the week.
+     *
+     * @param user the participant.
+     * @return the hour-of-week histogram.
+     * @see #hourOfWeekHistogram()
+     */
+    public int[] hourOfWeekHistogram(String user) {
+        int id = getUserId(user);
+        if (id < 0)
+            return new int[HOURS_PER_WEEK];
+        return hoursOfWeek.get(id).clone();
+    }
+    
+    /**
+     * Estimates the heap retained by this rollup.
+     * 
+     * @return the estimated bytes.
+     * @see FBFootprint
+     */
+    long estimatedBytes() {
+        long total = FBFootprint.align(FBFootprint.ARRAY_HEADER +
+                (long) FBFootprint.REFERENCE * series.size()) +
+                FBFootprint.align(FBFootprint.ARRAY_HEADER + 4L * totalDays.length);
+        for (ArrayList<DaySeries> thread : series) {
+            // the list with its array, then each series with its arrays.
+            total += 24 + FBFootprint.align(FBFootprint.ARRAY_HEADER +
+                    (long) FBFootprint.REFERENCE * thread.size());
+            for (DaySeries days : thread) {
+                total += 32 + 2 * FBFootprint.align(
+                        FBFootprint.ARRAY_HEADER + 4L * days.days.length);
+            }
+        }
+        // user names are shared with the messages that sent them.
+        total += (long) users.size() * (2 * FBFootprint.REFERENCE + 16 + 32 +
+                FBFootprint.align(FBFootprint.ARRAY_HEADER + 4 * HOURS_PER_WEEK));
+        return total;
+    }
+    
+    /**
+     * Returns the hour-of-week index of a dateTime.
+     *
+     * @param dateTime the dateTime.
+     * @return the index, from 0 for Monday 0:00 to 167 for Sunday 23:00.
+     */
+    public static int hourOfWeek(LocalDateTime dateTime) {
+        return (dateTime.getDayOfWeek().getValue() - 1) * 24 + dateTime.getHour();
+    }
+    
+    /**
+     * Sums daily counts into periods.
+     *
+     * @param user the participant's id, or -1 for all participants.
+     * @param threadIndex the thread index, or -1 for all threads.
+     * @param granularity the length of each period.
+     * @return the counts keyed by the first day of each period.
+     */
+    private SortedMap<LocalDate, Integer> rollUp(int user, int threadIndex,
+            Granularity granularity) {
+        if (user < 0 && threadIndex < 0)
+            return periods(firstDay, totalDays, granularity);
+        
+        // find the days spanned by the matching series, then sum them.
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        for (int i = 0; i < series.size(); i++) {
+            if (threadIndex >= 0 && i != threadIndex)
+                continue;
+            for (DaySeries days : series.get(i)) {
+                if ((user < 0 || days.user == user) && days.size > 0) {
+                    first = Math.min(first, days.days[0]);
+                    last = Math.max(last, days.days[days.size - 1]);
+                }
+            }
+        }
+        if (first > last)
+            return new TreeMap<>();
+        int[] counts = new int[last - first + 1];
+        for (int i = 0; i < series.size(); i++) {
+            if (threadIndex >= 0 && i != threadIndex)
+                continue;
+            for (DaySeries days : series.get(i)) {
+                if (user >= 0 && days.user != user)
+                    continue;
+                for (int j = 0; j < days.size; j++) {
+                    counts[days.days[j] - first] += days.counts[j];
+                }
+            }
+        }
+        return periods(first, counts, granularity);
+    }
+    
+    /**
+     * Sums an array of consecutive daily counts into periods.
+     *
+     * @param first the epoch day of the first count.
+     * @param counts the daily counts.
+     * @param granularity the length of each period.
+     * @return the counts keyed by the first day of each period.
+     */
+    private static SortedMap<LocalDate, Integer> periods(int first,
+            int[] counts, Granularity granularity) {
+        TreeMap<LocalDate, Integer> periods = new TreeMap<>();
+        LocalDate period = null;
+        LocalDate next = null;
+        int sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0)
+                continue;
+            LocalDate date = LocalDate.ofEpochDay(first + i);
+            // days are ascending, so a period ends once a day reaches the next.
+            if (period == null || !date.isBefore(next)) {
+                if (period != null)
+                    periods.put(period, sum);
+                period = granularity.periodStart(date);
+                next = granularity.periodEnd(period);
+                sum = 0;
+            }
+            sum += counts[i];
+        }
+        if (period != null)
+            periods.put(period, sum);
+        return periods;
+    }
+    
+    /**
+     * Counts one message in the total daily counts, growing them to cover
+     * the day. Growth at least doubles the array, leaving days without
+     * messages at either end until trim.
+     */
+    private void countTotal(int day) {
+        if (totalDays.length == 0) {
+            firstDay = day;
+            totalDays = new int[16];
+        } else if (day < firstDay) {
+            int shift = Math.max(firstDay - day, totalDays.length);
+            int[] grown = new int[totalDays.length + shift];
+            System.arraycopy(totalDays, 0, grown, shift, totalDays.length);
+            totalDays = grown;
+            firstDay -= shift;
+        } else if (day - firstDay >= totalDays.length) {
+            totalDays = Arrays.copyOf(totalDays, Math.max(day - firstDay + 1,
+                    totalDays.length * 2));
+        }
+        totalDays[day - firstDay]++;
+    }
+    
+    /**
+     * Returns the id of a participant, assigning one if needed.
+     */
+    private int idOf(String user) {
+        Integer id = userIds.get(user);
+        if (id == null) {
+            id = users.size();
+            users.add(user);
+            userIds.put(user, id);
+            hoursOfWeek.add(new int[HOURS_PER_WEEK]);
+        }
+        return id;
+    }
+}
@@ -6,6 +6,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
@@ -13,6 +14,7 @@ import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -45,6 +47,11 @@ public class FBAnalyzer implements Serializable {
      */
     private static final long serialVersionUID = 0x5d0aa1c1054e0892L;
     
+    /**
+     * The characters that separate words when counting them.
+     */
+    static final String WORD_DELIMITERS = " \t\n\r\f,.:;?![]";
+    
     /**
      * The list of threads of this analyzer.
      */
@@ -61,23 +68,126 @@ public class FBAnalyzer implements Serializable {
     HashMap<String, Integer> wordMap = new HashMap<>();
     
     /**
-     * Sole constructor. Takes a Facebook generated HTM file and parses it.
+     * The compressed store holding all message text, or null if message text
+     * is kept as plain strings.
+     */
+    FBTextStore textStore;
+    
+    /**
+     * The message counts by participant, thread, day and hour of week, built
+     * when the messages are parsed.
+     */
+    FBActivityRollup rollup;
+    
+    /**
+     * Default constructor. Takes a Facebook generated HTM file and parses it,
+     * keeping message text as plain strings.
      * @param htmlFile The file that contains message data.
      */
     public FBAnalyzer(File htmlFile) {
+        this(htmlFile, false);
+    }
+    
+    /**
+     * Constructor. Takes a Facebook generated HTM file and parses it. 
+     * Compressing message text trades some latency in FBMessage.getText() for
+     * a much smaller heap; word counts do not need to decompress the text,
+     * but word searches, mostCommonWord and approximateStatistics do.
+     * @param htmlFile The file that contains message data.
+     * @param compressText true to store message text in compressed blocks.
+     */
+    public FBAnalyzer(File htmlFile, boolean compressText) {
+        this(htmlFile, compressText, 0);
+    }
+    
+    /**
+     * Constructor. Takes a Facebook generated HTM file and parses it, first
+     * printing a warning if the load is projected to need more heap than a
+     * budget. Use FBFootprint.project to check a budget without parsing.
+     * @param htmlFile The file that contains message data.
+     * @param compressText true to store message text in compressed blocks.
+     * @param memoryBudget the heap, in bytes, that parsing should stay
+     * within, or zero to skip the check.
+     */
+    public FBAnalyzer(File htmlFile, boolean compressText, long memoryBudget) {
         this.threads = new ArrayList<>();
         this.thread = new FBThread();
+        this.textStore = compressText ? new FBTextStore() : null;
+        
+        if (memoryBudget > 0)
+            checkMemoryBudget(htmlFile, compressText, memoryBudget);
         
         try {
             Document doc = Jsoup.parse(htmlFile, "UTF-8", "");
             Elements elements = doc.getElementsByClass("thread");
             
             elements.stream().forEach((element) -> {
-                threads.add(new FBThread(element));
+                threads.add(new FBThread(element, textStore));
             });
         } catch (Exception e) {
             e.printStackTrace(System.out);
         }
+        
+        if (textStore != null)
+            textStore.seal();
+        this.rollup = FBActivityRollup.build(threads);
+    }
+    
+    /**
+     * Constructor for an analyzer whose threads have already been parsed,
+     * such as those read back from an FBPartitionedStore.
+     * @param threads the threads of the analyzer.
+     */
+    FBAnalyzer(List<FBThread> threads) {
+        this.threads = threads;
+        this.thread = new FBThread();
+        this.rollup = FBActivityRollup.build(threads);
+    }
+    
+    /**
+     * Returns the precomputed activity counts of this analyzer, used for
+     * time series and hour-of-week reports without scanning messages.
+     * 
+     * @return the activity rollup.
+     */
+    public FBActivityRollup getActivityRollup() {
+        // analyzers saved before the rollup existed build it on first use.
+        if (rollup == null)
+            rollup = FBActivityRollup.build(threads);
+        return rollup;
+    }
+    
+    /**
+     * Prints a warning if parsing a file is projected to exceed the memory
+     * budget.
+     * 
+     * @param htmlFile The file that contains message data.
+     * @param compressText true if message text will be compressed.
+     * @param memoryBudget the memory budget in bytes.
+     */
+    private static void checkMemoryBudget(File htmlFile, boolean compressText,
+            long memoryBudget) {
+        try {
+            FBFootprint.Projection projection =
+                    FBFootprint.project(htmlFile, compressText);
+            if (projection.exceeds(memoryBudget)) {
+                System.err.println("Warning: loading " + htmlFile + " is " +
+                        "projected to need " + projection + ", over the " +
+                        "budget of " + FBFootprint.formatBytes(memoryBudget));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Estimates the heap retained by this analyzer, by component and by
+     * thread.
+     * 
+     * @return the footprint of this analyzer.
+     */
+    public FBFootprint footprint() {
+        return FBFootprint.of(this);
     }
     
     /**
@@ -132,7 +242,7 @@ public class FBAnalyzer implements Serializable {
         StringTokenizer st;
         for (FBThread workingThread : threads) {
             for (FBMessage message : workingThread.getFBMessages()) {
-                st = new StringTokenizer(message.getText(), " \t\n\r\f,.:;?![]");
+                st = new StringTokenizer(message.getText(), WORD_DELIMITERS);
                 while (st.hasMoreTokens()) {
                     String word = st.nextToken().toLowerCase();
                     if( !wordMap.containsKey(word) ) {
@@ -148,6 +258,22 @@ public class FBAnalyzer implements Serializable {
         return null;
     }
     
+    /**
+     * Computes approximate word and correspondent statistics over all of the
+     * user's Facebook messages using fixed memory. Threads are summarized in
+     * parallel and their statistics merged.
+     * 
+     * @param topK the number of word counters kept.
+     * @param precision the HyperLogLog precision, between 4 and 18.
+     * @return the approximate statistics.
+     */
+    public FBApproximateStatistics approximateStatistics(int topK, int precision) {
+        return threads.parallelStream()
+                .map(t -> t.approximateStatistics(topK, precision))
+                .reduce(FBApproximateStatistics::merge)
+                .orElseGet(() -> new FBApproximateStatistics(topK, precision));
+    }
+    
     /**
      * Calculates and returns the number of total messages the user has sent
      * and received.
@@ -267,6 +393,33 @@ public class FBAnalyzer implements Serializable {
         }
     }
     
+    /**
+     * Saves the current analyzer into a directory as monthly partitions, so
+     * that later queries over a date range only read the months they need.
+     * 
+     * @param directory the name of the directory to save to.
+     * @throws IOException if the partitions cannot be written.
+     * @see FBPartitionedStore
+     */
+    public void savePartitioned(String directory) throws IOException {
+        FBPartitionedStore.write(this, new File(directory));
+    }
+    
+    /**
+     * Loads the messages between two dates from a directory written by
+     * savePartitioned. Only the months overlapping the dates are read.
+     * 
+     * @param directory the name of the directory to load from.
+     * @param start The starting date.
+     * @param end The end date
+     * @return an analyzer with the messages in between the start & end date.
+     * @throws IOException if the partitions cannot be read.
+     */
+    public static FBAnalyzer loadPartitioned(String directory,
+            LocalDateTime start, LocalDateTime end) throws IOException {
+        return new FBPartitionedStore(new File(directory)).load(start, end);
+    }
+    
     /**
      * Sets the current working thread to one with a specified set of 
  participants.
@@ -310,17 +463,41 @@ public class FBAnalyzer implements Serializable {
     }
     
     /**
-     * Main method used for internal testing.
+     * Main method used for internal testing. Usage:
+     * [--compress] [--budget MB] [--footprint] [file]. A .htm file is parsed;
+     * any other file is loaded as a saved analyzer. --footprint prints the
+     * estimated heap of the loaded analyzer.
      * 
      * @param args the command line arguments
      */
     public static void main(String[] args) {
         try {
-            File inputFile = new File("messages.htm");
+            String fileName = "testSave.ser";
+            boolean compress = false;
+            boolean footprint = false;
+            long budget = 0;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--compress")) {
+                    compress = true;
+                } else if (args[i].equals("--footprint")) {
+                    footprint = true;
+                } else if (args[i].equals("--budget")) {
+                    budget = Long.parseLong(args[++i]) * 1024 * 1024;
+                } else {
+                    fileName = args[i];
+                }
+            }
             
-            FBAnalyzer analyzer = FBAnalyzer.load("testSave.ser");
+            FBAnalyzer analyzer;
+            if (fileName.endsWith(".htm") || fileName.endsWith(".html")) {
+                analyzer = new FBAnalyzer(new File(fileName), compress, budget);
+            } else {
+                analyzer = FBAnalyzer.load(fileName);
+            }
             
             System.out.println(analyzer.numberOfThreads());
+            if (footprint)
+                System.out.print(analyzer.footprint());
             
         } catch(Exception e) {
             System.err.println("Error occurred: " + e);
@@ -0,0 +1,182 @@
+package facebookmessageanalyzer;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * Approximate word and correspondent statistics over a set of FBMessages.
+ * <p>
+ * Unlike FBAnalyzer.mostCommonWord, which keeps a counter for every distinct
+ * token, these statistics use a fixed amount of memory chosen up front: a
+ * SpaceSaving summary for the most common words and HyperLogLogs for the
+ * number of distinct words and senders. Statistics built with the same
+ * settings can be merged, so they may be computed per thread, per user or
+ * per time range and combined afterwards.
+ *
+ * @author Di Tran
+ * @version 0.1
+ */
+public class FBApproximateStatistics implements Serializable {
+    
+    /**
+     * The serial version ID of these statistics, used for serialization.
+     */
+    private static final long serialVersionUID = 0x1f83d9ab5be0cd19L;
+    
+    /**
+     * The default number of word counters.
+     */
+    public static final int DEFAULT_TOP_K = 1000;
+    
+    /**
+     * The default HyperLogLog precision, giving about 1.6% standard error.
+     */
+    public static final int DEFAULT_PRECISION = 12;
+    
+    /**
+     * The most common words.
+     */
+    private final SpaceSaving words;
+    
+    /**
+     * The distinct words.
+     */
+    private final HyperLogLog distinctWords;
+    
+    /**
+     * The distinct senders.
+     */
+    private final HyperLogLog distinctUsers;
+    
+    /**
+     * The number of messages recorded.
+     */
+    private long messages;
+    
+    /**
+     * Default constructor. Uses the default number of word counters and
+     * HyperLogLog precision.
+     */
+    public FBApproximateStatistics() {
+        this(DEFAULT_TOP_K, DEFAULT_PRECISION);
+    }
+    
+    /**
+     * Constructor with specified memory limits.
+     *
+     * @param topK the number of word counters kept.
+     * @param precision the HyperLogLog precision, between 4 and 18.
+     */
+    public FBApproximateStatistics(int topK, int precision) {
+        this.words = new SpaceSaving(topK);
+        this.distinctWords = new HyperLogLog(precision);
+        this.distinctUsers = new HyperLogLog(precision);
+    }
+    
+    /**
+     * Records a message. Words are split and lowercased the same way as in
+     * FBAnalyzer.mostCommonWord.
+     *
+     * @param message the message to record.
+     */
+    public void add(FBMessage message) {
+        StringTokenizer st = new StringTokenizer(message.getText(),
+                FBAnalyzer.WORD_DELIMITERS);
+        while (st.hasMoreTokens()) {
+            String word = st.nextToken().toLowerCase();
+            words.offer(word);
+            distinctWords.add(word);
+        }
+        distinctUsers.add(message.getUser());
+        messages++;
+    }
+    
+    /**
+     * Merges other statistics into these.
+     *
+     * @param other statistics built with the same settings.
+     * @return these statistics.
+     */
+    public FBApproximateStatistics merge(FBApproximateStatistics other) {
+        words.merge(other.words);
+        distinctWords.merge(other.distinctWords);
+        distinctUsers.merge(other.distinctUsers);
+        messages += other.messages;
+        return this;
+    }
+    
+    /**
+     * Returns the most common words, most common first. Each estimate
+     * carries the maximum amount by which its count may be too high.
+     *
+     * @param n the maximum number of words to return.
+     * @return the most common words.
+     */
+    public List<SpaceSaving.Estimate> mostCommonWords(int n) {
+        return words.top(n);
+    }
+    
+    /**
+     * Returns the count that any word missing from mostCommonWords could
+     * have at most.
+     *
+     * @return the maximum count of an unreported word.
+     */
+    public long mostCommonWordsError() {
+        return words.minCount();
+    }
+    
+    /**
+     * Returns the estimated number of distinct words.
+     *
+     * @return the distinct word count.
+     */
+    public long distinctWords() {
+        return distinctWords.estimate();
+    }
+    
+    /**
+     * Returns the estimated number of distinct senders.
+     *
+     * @return the distinct sender count.
+     */
+    public long distinctCorrespondents() {
+        return distinctUsers.estimate();
+    }
+    
+    /**
+     * Returns the relative standard error of the distinct counts.
+     *
+     * @return the standard error as a fraction of the estimate.
+     */
+    public double distinctError() {
+        return distinctWords.standardError();
+    }
+    
+    /**
+     * Returns the exact number of words recorded.
+     *
+     * @return the number of words.
+     */
+    public long numberOfWords() {
+        return words.getTotal();
+    }
+    
+    /**
+     * Returns the exact number of messages recorded.
+     *
+     * @return the number of messages.
+     */
+    public long numberOfMessages() {
+        return messages;
+    }
+    
+    @Override
+    public String toString() {
+        return "messages: " + messages + ", words: " + numberOfWords() +
+                ", distinct words: " + distinctWords() +
+                ", distinct correspondents: " + distinctCorrespondents() +
+                " (+/-" + Math.round(distinctError() * 100 * 10) / 10.0 + "%)";
+    }
+}
@@ -0,0 +1,159 @@
+package facebookmessageanalyzer;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.StringTokenizer;
+import org.jsoup.nodes.Element;
+
+/**
+ * An FBMessage whose text is held compressed by an FBTextStore.
+ * <p>
+ * The dateTime is packed into the minutes since the epoch and rebuilt on
+ * demand, and the dateTime string is rebuilt from it and the time zone
+ * whenever that gives back the string Facebook wrote. Sender names and zones
+ * are interned so every message of a sender shares one string.
+ *
+ * @author Di Tran
+ * @version 0.1
+ */
+class FBCompactMessage extends FBMessage {
+    
+    /**
+     * The serial version ID of this message, used for serialization.
+     */
+    private static final long serialVersionUID = 0x3c6ef372fe94f82bL;
+    
+    /**
+     * The format of the dateTime as written by Facebook, without the time
+     * zone.
+     */
+    private static final DateTimeFormatter LOCAL_FORMAT = DateTimeFormatter.
+            ofPattern("EEEE, MMMM d, yyyy 'at' h:mma");
+    
+    /**
+     * The value of minutes for a message without a dateTime.
+     */
+    private static final int UNDATED = Integer.MIN_VALUE;
+    
+    /**
+     * The dateTime this message was sent, in minutes since the epoch as if
+     * it were UTC.
+     */
+    private final int minutes;
+    
+    /**
+     * The time zone written after the dateTime, shared between messages.
+     * Null when the dateTime string is stored instead.
+     */
+    private final String zone;
+    
+    /**
+     * The store holding this message's text.
+     */
+    private final FBTextStore textStore;
+    
+    /**
+     * The id of this message's text within textStore.
+     */
+    private final int textId;
+    
+    /**
+     * Constructor. Elements are passed in and parsed into data for this
+     * instance of the message.
+     *
+     * @param metaData the Element containing the message's metadata.
+     * @param text the textElement of the message
+     * @param textStore the store to hold the text.
+     */
+    FBCompactMessage(Element metaData, Element text, FBTextStore textStore) {
+        this(parseUser(metaData), parseDateTimeString(metaData), text.text(),
+                textStore);
+    }
+    
+    /**
+     * Constructor parsing the dateTime from its string.
+     */
+    private FBCompactMessage(String user, String dateTimeString, String text,
+            FBTextStore textStore) {
+        this(user, parseDateTime(dateTimeString), dateTimeString, text,
+                textStore);
+    }
+    
+    /**
+     * Constructor for a message that has already been parsed.
+     *
+     * @param user the name of the user that sent the message.
+     * @param dateTime the dateTime the message was sent, or null if unknown.
+     * @param dateTimeString the formatted string of the dateTime.
+     * @param text the message's text.
+     * @param textStore the store to hold the text.
+     */
+    FBCompactMessage(String user, LocalDateTime dateTime,
+            String dateTimeString, String text, FBTextStore textStore) {
+        super(user.intern(), rebuilds(dateTime, dateTimeString) ?
+                null : dateTimeString, new StringTokenizer(text).countTokens());
+        this.minutes = dateTime == null ? UNDATED :
+                Math.toIntExact(Math.floorDiv(
+                        dateTime.toEpochSecond(ZoneOffset.UTC), 60));
+        this.zone = storedDateTimeString() == null ?
+                zoneOf(dateTimeString) : null;
+        this.textStore = textStore;
+        this.textId = textStore.add(text);
+    }
+    
+    /**
+     * Checks if a dateTime string can be rebuilt from its dateTime and zone.
+     */
+    private static boolean rebuilds(LocalDateTime dateTime,
+            String dateTimeString) {
+        return dateTime != null && dateTime.getSecond() == 0 &&
+                dateTime.getNano() == 0 && dateTimeString.equals(
+                dateTime.format(LOCAL_FORMAT) + " " + zoneOf(dateTimeString));
+    }
+    
+    /**
+     * Returns the interned time zone at the end of a dateTime string.
+     */
+    private static String zoneOf(String dateTimeString) {
+        return dateTimeString.substring(
+                dateTimeString.lastIndexOf(' ') + 1).intern();
+    }
+    
+    /**
+     * Gets the dateTime this message has been sent, unpacking it.
+     *
+     * @return the dateTime.
+     */
+    @Override
+    public LocalDateTime getDateTime() {
+        if (this.minutes == UNDATED) {
+            return null;
+        }
+        return LocalDateTime.ofEpochSecond(this.minutes * 60L, 0,
+                ZoneOffset.UTC);
+    }
+    
+    /**
+     * Gets the dateTime string of this message, rebuilding it if needed.
+     *
+     * @return the dateTime in string format
+     */
+    @Override
+    public String getDateTimeString() {
+        if (this.zone == null) {
+            return storedDateTimeString();
+        }
+        return getDateTime().format(LOCAL_FORMAT) + " " + this.zone;
+    }
+    
+    /**
+     * Gets the text of this message, decompressing it from the text store.
+     *
+     * @return the message's text.
+     */
+    @Override
+    public String getText() {
+        return this.textStore.get(this.textId);
+    }
+}
@@ -0,0 +1,501 @@
+package facebookmessageanalyzer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streams the threads, messages and per-thread statistics of an FBAnalyzer
+ * to files for use by other tools.
+ * <p>
+ * Four tables are written: threads (thread_id, participants,
+ * message_count), users (sender_id, name), messages (thread_id, sender_id,
+ * epoch_second, text) and aggregates (thread_id, sender_id, messages,
+ * words). Each can be written as CSV or in a compressed columnar format.
+ * Rows are buffered in batches and written through a FileChannel, so memory
+ * use depends on the batch size and not on the size of the archive. Epoch
+ * seconds are parsed from each message's dateTime string with its time
+ * zone; messages whose string cannot be parsed have an empty or
+ * Long.MIN_VALUE epoch_second.
+ * <p>
+ * The columnar format starts with the magic "FBMC", a version int, the
+ * column count, and the name and type of each column. A column's name is a
+ * string as below and its type is one byte: 0 for INT, 1 for LONG and 2 for
+ * STRING, the ordinals of ColumnType. Row groups follow, each an int row
+ * count and, per column, an int length and that many bytes of deflated
+ * column data. A row count of zero ends the file. Ints and longs
+ * are big-endian; strings are an int UTF-8 length followed by the bytes.
+ *
+ * @author Di Tran
+ * @version 0.1
+ */
+public class FBExporter {
+    
+    /**
+     * The default number of rows written per batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+    
+    /**
+     * The version of the columnar format.
+     */
+    public static final int COLUMNAR_VERSION = 1;
+    
+    /**
+     * The type of a column in an exported table. The ordinals are written to
+     * columnar files, so new types must be added at the end.
+     */
+    public enum ColumnType {
+        INT, LONG, STRING
+    }
+    
+    /**
+     * The analyzer being exported.
+     */
+    private final FBAnalyzer analyzer;
+    
+    /**
+     * The analyzer's activity rollup, which assigns the sender ids.
+     */
+    private final FBActivityRollup rollup;
+    
+    /**
+     * The number of rows written per batch.
+     */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    
+    /**
+     * Whether messages are written by several workers into separate parts.
+     */
+    private boolean parallel;
+    
+    /**
+     * Constructor. Sender ids are those of the analyzer's activity rollup,
+     * so exported data can be joined with FBActivityRollup.getUserId.
+     *
+     * @param analyzer the analyzer to export.
+     */
+    public FBExporter(FBAnalyzer analyzer) {
+        this.analyzer = analyzer;
+        this.rollup = analyzer.getActivityRollup();
+    }
+    
+    /**
+     * Sets the number of rows buffered before each write.
+     *
+     * @param batchSize the number of rows per batch.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batchSize: " + batchSize);
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * Sets whether messages are exported in parallel. When enabled, the
+     * messages table is split into one part per available processor, named
+     * messages-part-N, with threads assigned to parts round-robin.
+     *
+     * @param parallel true to export messages in parallel.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+    
+    /**
+     * Exports all tables as CSV files into a directory.
+     *
+     * @param directory the directory to write to.
+     * @throws IOException if a file cannot be written.
+     */
+    public void exportCsv(File directory) throws IOException {
+        export(directory, false);
+    }
+    
+    /**
+     * Exports all tables as columnar files into a directory.
+     *
+     * @param directory the directory to write to.
+     * @throws IOException if a file cannot be written.
+     */
+    public void exportColumnar(File directory) throws IOException {
+        export(directory, true);
+    }
+    
+    /**
+     * Exports all tables into a directory.
+     *
+     * @param directory the directory to write to.
+     * @param columnar true for the columnar format, false for CSV.
+     * @throws IOException if a file cannot be written.
+     */
+    private void export(File directory, boolean columnar) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("cannot create " + directory);
+        
+        try (TableWriter threads = open(directory, "threads", columnar,
+                new String[] {"thread_id", "participants", "message_count"},
+                new ColumnType[] {ColumnType.INT, ColumnType.STRING, ColumnType.INT})) {
+            for (int i = 0; i < analyzer.numberOfThreads(); i++) {
+                FBThread thread = analyzer.getThread(i);
+                threads.row(i, thread.getParticipants(), thread.numberOfMessages());
+            }
+        }
+        
+        try (TableWriter users = open(directory, "users", columnar,
+                new String[] {"sender_id", "name"},
+                new ColumnType[] {ColumnType.INT, ColumnType.STRING})) {
+            List<String> names = rollup.getUsers();
+            for (int i = 0; i < names.size(); i++) {
+                users.row(i, names.get(i));
+            }
+        }
+        
+        try (TableWriter aggregates = open(directory, "aggregates", columnar,
+                new String[] {"thread_id", "sender_id", "messages", "words"},
+                new ColumnType[] {ColumnType.INT, ColumnType.INT,
+                    ColumnType.INT, ColumnType.LONG})) {
+            for (int i = 0; i < analyzer.numberOfThreads(); i++) {
+                writeAggregates(aggregates, i);
+            }
+        }
+        
+        if (!parallel) {
+            writeMessages(directory, "messages", columnar, 0, 1);
+            return;
+        }
+        int parts = Runtime.getRuntime().availableProcessors();
+        try {
+            IntStream.range(0, parts).parallel().forEach(part -> {
+                try {
+                    writeMessages(directory, "messages-part-" + part, columnar,
+                            part, parts);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+    
+    /**
+     * Writes the per-sender message and word counts of one thread.
+     */
+    private void writeAggregates(TableWriter aggregates, int threadIndex)
+            throws IOException {
+        Map<Integer, long[]> counts = new LinkedHashMap<>();
+        for (FBMessage message : analyzer.getThread(threadIndex).getFBMessages()) {
+            int sender = rollup.getUserId(message.getUser());
+            long[] count = counts.get(sender);
+            if (count == null) {
+                count = new long[2];
+                counts.put(sender, count);
+            }
+            count[0]++;
+            count[1] += message.numberOfWords();
+        }
+        for (Map.Entry<Integer, long[]> entry : counts.entrySet()) {
+            aggregates.row(threadIndex, entry.getKey(),
+                    (int) entry.getValue()[0], entry.getValue()[1]);
+        }
+    }
+    
+    /**
+     * Writes the messages of every thread whose index is part modulo parts.
+     */
+    private void writeMessages(File directory, String name, boolean columnar,
+            int part, int parts) throws IOException {
+        try (TableWriter messages = open(directory, name, columnar,
+                new String[] {"thread_id", "sender_id", "epoch_second", "text"},
+                new ColumnType[] {ColumnType.INT, ColumnType.INT,
+                    ColumnType.LONG, ColumnType.STRING})) {
+            for (int i = part; i < analyzer.numberOfThreads(); i += parts) {
+                List<FBMessage> list = analyzer.getThread(i).getFBMessages();
+                for (FBMessage message : list) {
+                    messages.row(i, rollup.getUserId(message.getUser()),
+                            epochSecond(message), message.getText());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the seconds since the epoch at which a message was sent, using
+     * the time zone written in its dateTime string.
+     *
+     * @param message the message.
+     * @return the epoch second, or null if the string cannot be parsed.
+     */
+    private static Long epochSecond(FBMessage message) {
+        try {
+            return ZonedDateTime.parse(message.getDateTimeString(),
+                    FBMessage.DATE_TIME_FORMAT).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Opens a table file for writing.
+     */
+    private TableWriter open(File directory, String name, boolean columnar,
+            String[] columns, ColumnType[] types) throws IOException {
+        if (columnar)
+            return new ColumnarWriter(new File(directory, name + ".fbc"),
+                    columns, types, batchSize);
+        return new CsvWriter(new File(directory, name + ".csv"), columns,
+                batchSize);
+    }
+    
+    /**
+     * Writes rows of a table in batches through a FileChannel.
+     */
+    private abstract static class TableWriter implements Closeable {
+        
+        /**
+         * The channel of the file being written.
+         */
+        final FileChannel channel;
+        
+        /**
+         * The number of rows per batch.
+         */
+        final int batchSize;
+        
+        /**
+         * The number of rows in the current batch.
+         */
+        int rows;
+        
+        TableWriter(File file, int batchSize) throws IOException {
+            this.channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.batchSize = batchSize;
+        }
+        
+        /**
+         * Adds a row, writing the batch once it is full.
+         */
+        void row(Object... values) throws IOException {
+            append(values);
+            rows++;
+            if (rows == batchSize) {
+                flush();
+                rows = 0;
+            }
+        }
+        
+        /**
+         * Adds a row to the current batch.
+         */
+        abstract void append(Object[] values) throws IOException;
+        
+        /**
+         * Writes the current batch.
+         */
+        abstract void flush() throws IOException;
+        
+        /**
+         * Writes a buffer fully.
+         */
+        void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            try {
+                if (rows > 0)
+                    flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+    
+    /**
+     * Writes a table as comma separated values with a header row.
+     */
+    private static class CsvWriter extends TableWriter {
+        
+        /**
+         * The rows of the current batch.
+         */
+        private final StringBuilder batch = new StringBuilder();
+        
+        CsvWriter(File file, String[] columns, int batchSize) throws IOException {
+            super(file, batchSize);
+            append(columns);
+            flush();
+        }
+        
+        @Override
+        void append(Object[] values) {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0)
+                    batch.append(',');
+                if (values[i] != null)
+                    appendField(values[i].toString());
+            }
+            batch.append('\n');
+        }
+        
+        /**
+         * Appends a field, quoting it if it contains a separator or quote.
+         */
+        private void appendField(String field) {
+            boolean quote = false;
+            for (int i = 0; i < field.length() && !quote; i++) {
+                char c = field.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                batch.append(field);
+                return;
+            }
+            batch.append('"');
+            for (int i = 0; i < field.length(); i++) {
+                char c = field.charAt(i);
+                if (c == '"')
+                    batch.append('"');
+                batch.append(c);
+            }
+            batch.append('"');
+        }
+        
+        @Override
+        void flush() throws IOException {
+            write(StandardCharsets.UTF_8.encode(CharBuffer.wrap(batch)));
+            batch.setLength(0);
+        }
+    }
+    
+    /**
+     * Writes a table in the columnar format described in FBExporter.
+     */
+    private static class ColumnarWriter extends TableWriter {
+        
+        /**
+         * The type of each column.
+         */
+        private final ColumnType[] types;
+        
+        /**
+         * The uncompressed data of each column for the current batch.
+         */
+        private final ByteArrayOutputStream[] buffers;
+        
+        /**
+         * Writers over buffers.
+         */
+        private final DataOutputStream[] columns;
+        
+        /**
+         * The deflater reused for every column chunk.
+         */
+        private final Deflater deflater = new Deflater();
+        
+        ColumnarWriter(File file, String[] names, ColumnType[] types,
+                int batchSize) throws IOException {
+            super(file, batchSize);
+            this.types = types;
+            this.buffers = new ByteArrayOutputStream[types.length];
+            this.columns = new DataOutputStream[types.length];
+            for (int i = 0; i < types.length; i++) {
+                buffers[i] = new ByteArrayOutputStream();
+                columns[i] = new DataOutputStream(buffers[i]);
+            }
+            
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(header);
+            out.writeBytes("FBMC");
+            out.writeInt(COLUMNAR_VERSION);
+            out.writeInt(names.length);
+            for (int i = 0; i < names.length; i++) {
+                writeString(out, names[i]);
+                out.writeByte(types[i].ordinal());
+            }
+            write(ByteBuffer.wrap(header.toByteArray()));
+        }
+        
+        @Override
+        void append(Object[] values) throws IOException {
+            for (int i = 0; i < types.length; i++) {
+                switch (types[i]) {
+                    case INT:
+                        columns[i].writeInt((Integer) values[i]);
+                        break;
+                    case LONG:
+                        columns[i].writeLong(values[i] == null
+                                ? Long.MIN_VALUE : ((Number) values[i]).longValue());
+                        break;
+                    default:
+                        writeString(columns[i], (String) values[i]);
+                        break;
+                }
+            }
+        }
+        
+        @Override
+        void flush() throws IOException {
+            ByteArrayOutputStream group = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(group);
+            out.writeInt(rows);
+            for (ByteArrayOutputStream buffer : buffers) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                deflater.reset();
+                try (DeflaterOutputStream deflate =
+                        new DeflaterOutputStream(compressed, deflater)) {
+                    buffer.writeTo(deflate);
+                }
+                out.writeInt(compressed.size());
+                compressed.writeTo(out);
+                buffer.reset();
+            }
+            write(ByteBuffer.wrap(group.toByteArray()));
+        }
+        
+        @Override
+        public void close() throws IOException {
+            try {
+                if (rows > 0)
+                    flush();
+                rows = 0;
+                write(ByteBuffer.allocate(4).putInt(0, 0));
+            } finally {
+                deflater.end();
+                super.close();
+            }
+        }
+        
+        /**
+         * Writes a string as its UTF-8 length and bytes.
+         */
+        private static void writeString(DataOutputStream out, String value)
+                throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
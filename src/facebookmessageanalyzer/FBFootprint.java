@@ -0,0 +1,479 @@
+package facebookmessageanalyzer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+/**
+ * Estimates how much heap an FBAnalyzer retains, split by component and by
+ * thread.
+ * <p>
+ * Sizes are computed from object counts and string lengths, assuming a
+ * 64-bit JVM with compressed references and compact strings, so no objects
+ * are walked reflectively and compressed text is never decompressed. The
+ * estimates are meant to find which component dominates, not to match a
+ * heap dump to the byte. Text held by a shared FBTextStore is counted in
+ * the TEXT total but not in any single thread.
+ * <p>
+ * Before a file is parsed, project can estimate the heap a load will need
+ * from the file's size and a sample of its first messages.
+ *
+ * @author Di Tran
+ * @version 0.1
+ */
+public class FBFootprint {
+    
+    /**
+     * The parts of an analyzer that are measured.
+     */
+    public enum Component {
+        /** Message text, plain or compressed. */
+        TEXT,
+        /** Parsed dateTimes and their strings. */
+        TIMESTAMPS,
+        /** Sender names. */
+        USERS,
+        /** FBMessage objects themselves. */
+        MESSAGES,
+        /** FBThread objects, their lists and participants. */
+        THREADS,
+        /** The word counts of FBAnalyzer.mostCommonWord. */
+        WORD_MAP,
+        /** Precomputed structures such as the activity rollup. */
+        INDEXES,
+        /** Decompressed text blocks. */
+        CACHES
+    }
+    
+    /**
+     * The size of an object header.
+     */
+    static final int HEADER = 12;
+    
+    /**
+     * The size of an array header.
+     */
+    static final int ARRAY_HEADER = 16;
+    
+    /**
+     * The size of a reference.
+     */
+    static final int REFERENCE = 4;
+    
+    /**
+     * The size of a String without its array: a header, a reference, the
+     * hash and two flags, aligned.
+     */
+    private static final int STRING_BYTES = 24;
+    
+    /**
+     * The size of an FBMessage: a header, four references and an int.
+     */
+    private static final int MESSAGE_BYTES = 32;
+    
+    /**
+     * The size of an FBCompactMessage: an FBMessage with two more references
+     * and two more ints. Its dateTime is packed into one of the ints.
+     */
+    private static final int COMPACT_MESSAGE_BYTES = 48;
+    
+    /**
+     * The size of a LocalDateTime with its LocalDate and LocalTime.
+     */
+    private static final int DATE_TIME_BYTES = 72;
+    
+    /**
+     * The size of a HashMap entry with its Integer value, excluding the key.
+     */
+    private static final int MAP_ENTRY_BYTES = 32 + 16;
+    
+    /**
+     * The number of characters of a string checked to size its array.
+     */
+    private static final int SAMPLE_CHARS = 32;
+    
+    /**
+     * The number of file bytes sampled when projecting a load.
+     */
+    private static final int SAMPLE_BYTES = 1 << 20;
+    
+    /**
+     * The approximate heap used by Jsoup's document per byte of input, which
+     * is held only while parsing.
+     */
+    private static final double DOM_BYTES_PER_FILE_BYTE = 6.0;
+    
+    /**
+     * The approximate size of Deflate-compressed message text relative to
+     * its UTF-8 size.
+     */
+    private static final double COMPRESSED_TEXT_RATIO = 0.35;
+    
+    /**
+     * The estimated bytes of each component.
+     */
+    private final long[] bytes = new long[Component.values().length];
+    
+    /**
+     * The estimated bytes of each thread.
+     */
+    private final long[] threadBytes;
+    
+    /**
+     * Constructor. Use of to measure an analyzer.
+     *
+     * @param threads the number of threads measured.
+     */
+    private FBFootprint(int threads) {
+        this.threadBytes = new long[threads];
+    }
+    
+    /**
+     * Estimates the heap retained by an analyzer. This takes time linear in
+     * the number of threads, messages and counted words: strings are sized
+     * from their length and a few sampled characters, and no text is
+     * decompressed.
+     *
+     * @param analyzer the analyzer to measure.
+     * @return the footprint of the analyzer.
+     */
+    public static FBFootprint of(FBAnalyzer analyzer) {
+        int threadCount = analyzer.numberOfThreads();
+        FBFootprint footprint = new FBFootprint(threadCount);
+        Set<String> users = Collections.newSetFromMap(new IdentityHashMap<>());
+        
+        footprint.add(-1, Component.THREADS, align(HEADER + REFERENCE) +
+                align(ARRAY_HEADER + (long) REFERENCE * threadCount));
+        for (int i = 0; i < threadCount; i++) {
+            FBThread thread = analyzer.getThread(i);
+            List<FBMessage> messages = thread.getFBMessages();
+            footprint.add(i, Component.THREADS, align(HEADER + 2 * REFERENCE) +
+                    align(HEADER + 2 * 4 + REFERENCE) +
+                    align(ARRAY_HEADER + (long) REFERENCE * messages.size()) +
+                    stringBytes(thread.getParticipants()));
+            for (FBMessage message : messages) {
+                if (message instanceof FBCompactMessage) {
+                    footprint.add(i, Component.MESSAGES, COMPACT_MESSAGE_BYTES);
+                } else {
+                    footprint.add(i, Component.MESSAGES, MESSAGE_BYTES);
+                    if (message.getDateTime() != null)
+                        footprint.add(i, Component.TIMESTAMPS, DATE_TIME_BYTES);
+                }
+                // a sender name shared between messages is counted once.
+                if (users.add(message.getUser()))
+                    footprint.add(i, Component.USERS,
+                            stringBytes(message.getUser()));
+                footprint.add(i, Component.TIMESTAMPS,
+                        stringBytes(message.storedDateTimeString()));
+                footprint.add(i, Component.TEXT,
+                        stringBytes(message.plainText()));
+            }
+        }
+        
+        FBTextStore textStore = analyzer.textStore;
+        if (textStore != null) {
+            footprint.add(-1, Component.TEXT, textStore.compressedBytes() +
+                    align(ARRAY_HEADER + 4L * textStore.size()));
+            footprint.add(-1, Component.CACHES, textStore.cachedBytes());
+        }
+        
+        if (analyzer.wordMap != null) {
+            long wordBytes = align(ARRAY_HEADER +
+                    (long) REFERENCE * tableSize(analyzer.wordMap.size()));
+            for (Map.Entry<String, Integer> entry : analyzer.wordMap.entrySet()) {
+                wordBytes += MAP_ENTRY_BYTES + stringBytes(entry.getKey());
+            }
+            footprint.add(-1, Component.WORD_MAP, wordBytes);
+        }
+        
+        if (analyzer.rollup != null)
+            footprint.add(-1, Component.INDEXES, analyzer.rollup.estimatedBytes());
+        return footprint;
+    }
+    
+    /**
+     * Adds bytes to a component and, if given, a thread.
+     */
+    private void add(int threadIndex, Component component, long size) {
+        bytes[component.ordinal()] += size;
+        if (threadIndex >= 0)
+            threadBytes[threadIndex] += size;
+    }
+    
+    /**
+     * Returns the estimated bytes of a component.
+     *
+     * @param component the component.
+     * @return the estimated bytes.
+     */
+    public long getBytes(Component component) {
+        return bytes[component.ordinal()];
+    }
+    
+    /**
+     * Returns the estimated bytes of a thread's messages, including their
+     * text unless it is held by a shared FBTextStore.
+     *
+     * @param threadIndex the index of the thread.
+     * @return the estimated bytes.
+     */
+    public long getThreadBytes(int threadIndex) {
+        return threadBytes[threadIndex];
+    }
+    
+    /**
+     * Returns the estimated bytes of the whole analyzer.
+     *
+     * @return the estimated bytes.
+     */
+    public long getTotal() {
+        long total = 0;
+        for (long size : bytes) {
+            total += size;
+        }
+        return total;
+    }
+    
+    /**
+     * Returns a report listing each component, the largest threads and the
+     * total.
+     *
+     * @return the report.
+     */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        for (Component component : Component.values()) {
+            report.append(String.format("%-12s %12s%n", component,
+                    formatBytes(getBytes(component))));
+        }
+        report.append(String.format("%-12s %12s%n", "TOTAL",
+                formatBytes(getTotal())));
+        
+        // list the five largest threads.
+        boolean[] listed = new boolean[threadBytes.length];
+        for (int n = 0; n < 5 && n < threadBytes.length; n++) {
+            int largest = -1;
+            for (int i = 0; i < threadBytes.length; i++) {
+                if (!listed[i] && (largest < 0 ||
+                        threadBytes[i] > threadBytes[largest]))
+                    largest = i;
+            }
+            listed[largest] = true;
+            report.append(String.format("thread %-5d %12s%n", largest,
+                    formatBytes(threadBytes[largest])));
+        }
+        return report.toString();
+    }
+    
+    /**
+     * A projection of the heap needed to parse a file.
+     */
+    public static class Projection {
+        
+        /**
+         * The size of the file in bytes.
+         */
+        private final long fileBytes;
+        
+        /**
+         * The projected number of messages.
+         */
+        private final long messages;
+        
+        /**
+         * The projected heap retained once parsing is done.
+         */
+        private final long retainedBytes;
+        
+        /**
+         * The projected heap needed while parsing, including the document.
+         */
+        private final long peakBytes;
+        
+        Projection(long fileBytes, long messages, long retainedBytes,
+                long peakBytes) {
+            this.fileBytes = fileBytes;
+            this.messages = messages;
+            this.retainedBytes = retainedBytes;
+            this.peakBytes = peakBytes;
+        }
+        
+        public long getFileBytes() {
+            return fileBytes;
+        }
+        
+        public long getMessages() {
+            return messages;
+        }
+        
+        public long getRetainedBytes() {
+            return retainedBytes;
+        }
+        
+        public long getPeakBytes() {
+            return peakBytes;
+        }
+        
+        /**
+         * Checks if parsing is projected to need more than a budget.
+         *
+         * @param budgetBytes the memory budget in bytes.
+         * @return true if the peak exceeds the budget.
+         */
+        public boolean exceeds(long budgetBytes) {
+            return peakBytes > budgetBytes;
+        }
+        
+        @Override
+        public String toString() {
+            return "~" + messages + " messages, " + formatBytes(retainedBytes) +
+                    " retained, " + formatBytes(peakBytes) + " peak while parsing";
+        }
+    }
+    
+    /**
+     * Projects the heap needed to parse a file. The first megabyte of the
+     * file is parsed to find the number of messages per byte of the file and
+     * the average size of their strings, which are scaled to the whole file.
+     * Budgets can be checked with Projection.exceeds.
+     *
+     * @param htmlFile the file that contains message data.
+     * @param compressText true if text will be stored compressed.
+     * @return the projection.
+     * @throws IOException if the file cannot be read.
+     */
+    public static Projection project(File htmlFile, boolean compressText)
+            throws IOException {
+        long fileBytes = htmlFile.length();
+        byte[] sample = new byte[(int) Math.min(fileBytes, SAMPLE_BYTES)];
+        int read = 0;
+        try (InputStream in = new FileInputStream(htmlFile)) {
+            while (read < sample.length) {
+                int n = in.read(sample, read, sample.length - read);
+                if (n < 0)
+                    break;
+                read += n;
+            }
+        }
+        
+        // drop the message cut off at the end of the sample.
+        String html = new String(sample, 0, read, StandardCharsets.UTF_8);
+        long sampleBytes = read;
+        int lastMessage = html.lastIndexOf("</p>");
+        if (lastMessage >= 0 && read < fileBytes) {
+            html = html.substring(0, lastMessage + 4);
+            sampleBytes = html.getBytes(StandardCharsets.UTF_8).length;
+        }
+        
+        // sizes of the sampled strings as they would be held once parsed.
+        Elements sampled = Jsoup.parse(html).getElementsByClass("message");
+        long textBytes = 0;
+        long userBytes = 0;
+        long dateBytes = 0;
+        long sharedBytes = 0;
+        Set<String> users = new HashSet<>();
+        for (Element message : sampled) {
+            Element text = message.nextElementSibling();
+            String messageText = text == null ? "" : text.text();
+            if (compressText) {
+                textBytes += 4 + Math.round(messageText.getBytes(
+                        StandardCharsets.UTF_8).length * COMPRESSED_TEXT_RATIO);
+            } else {
+                textBytes += stringBytes(messageText);
+            }
+            // compressed loads share one string per sender.
+            String user = message.getElementsByClass("user").text();
+            if (!compressText)
+                userBytes += stringBytes(user);
+            else if (users.add(user))
+                sharedBytes += stringBytes(user);
+            // compressed loads rebuild the dateTime string on demand.
+            if (!compressText)
+                dateBytes += stringBytes(message.getElementsByClass("meta").text());
+        }
+        
+        long domBytes = (long) (fileBytes * DOM_BYTES_PER_FILE_BYTE);
+        if (sampled.isEmpty() || sampleBytes == 0)
+            return new Projection(fileBytes, 0, 0, domBytes);
+        
+        double scale = (double) fileBytes / sampleBytes;
+        long messages = Math.round(sampled.size() * scale);
+        double n = sampled.size();
+        long perMessage = (compressText ? COMPACT_MESSAGE_BYTES :
+                MESSAGE_BYTES + DATE_TIME_BYTES) +
+                Math.round((textBytes + userBytes + dateBytes) / n);
+        long retained = messages * perMessage + sharedBytes;
+        return new Projection(fileBytes, messages, retained, retained + domBytes);
+    }
+    
+    /**
+     * Returns the estimated size of a string, or zero for null. Whether the
+     * string is stored as Latin-1 or UTF-16 is judged from at most
+     * SAMPLE_CHARS characters spread over it, so the cost does not depend on
+     * its length.
+     *
+     * @param value the string.
+     * @return the estimated bytes of the string and its array.
+     */
+    static long stringBytes(String value) {
+        if (value == null)
+            return 0;
+        int length = value.length();
+        int step = Math.max(1, (length + SAMPLE_CHARS - 1) / SAMPLE_CHARS);
+        boolean latin1 = true;
+        for (int i = 0; i < length && latin1; i += step) {
+            latin1 = value.charAt(i) < 256;
+        }
+        return STRING_BYTES + align(ARRAY_HEADER +
+                (long) value.length() * (latin1 ? 1 : 2));
+    }
+    
+    /**
+     * Returns the table length a HashMap uses for a number of entries.
+     */
+    private static long tableSize(int entries) {
+        long size = 16;
+        while (size * 0.75 < entries) {
+            size *= 2;
+        }
+        return size;
+    }
+    
+    /**
+     * Rounds a size up to the 8-byte object alignment.
+     *
+     * @param size the unaligned size.
+     * @return the aligned size.
+     */
+    static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+    
+    /**
+     * Formats a number of bytes with a binary unit.
+     *
+     * @param size the number of bytes.
+     * @return the formatted size.
+     */
+    static String formatBytes(long size) {
+        if (size < 1024)
+            return size + " B";
+        if (size < 1024 * 1024)
+            return String.format("%.1f KB", size / 1024.0);
+        if (size < 1024L * 1024 * 1024)
+            return String.format("%.1f MB", size / (1024.0 * 1024));
+        return String.format("%.2f GB", size / (1024.0 * 1024 * 1024));
+    }
+}
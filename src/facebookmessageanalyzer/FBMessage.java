@@ -1,5 +1,7 @@
 package facebookmessageanalyzer;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import org.jsoup.nodes.Element;
 import java.time.*;
@@ -17,6 +19,18 @@ import java.util.StringTokenizer;
  */
 public class FBMessage implements Serializable {
     
+    /**
+     * The serial version ID of this message, used for serialization. Pinned
+     * to the value of version 0.1 so that earlier saves still load.
+     */
+    private static final long serialVersionUID = -5155414699896197192L;
+    
+    /**
+     * The format of the dateTime as written by Facebook.
+     */
+    static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.
+            ofPattern("EEEE, MMMM d, yyyy 'at' h:mma z");
+    
     /**
      * The dateTime this message was sent.
      */
@@ -32,6 +46,11 @@ public class FBMessage implements Serializable {
      */
     private String text; 
     
+    /**
+     * The number of words in this message, counted when it is parsed.
+     */
+    private int wordCount;
+    
     /**
      * The name of the user that sent this message.
      */
@@ -45,19 +64,81 @@ public class FBMessage implements Serializable {
      * @param text the textElement of the message
      */
     public FBMessage(Element metaData, Element text) {
-        String rawDateText = metaData.children().get(0).
-                getElementsByClass("meta").text();
-        this.user = metaData.children().get(0).
-                getElementsByClass("user").text();
-        this.dateTimeString = capitalizeTimeOfDay(rawDateText);
-        this.text = text.text();
-        
+        this(parseUser(metaData), parseDateTimeString(metaData), text.text());
+    }
+    
+    /**
+     * Constructor parsing the dateTime from its string.
+     */
+    private FBMessage(String user, String dateTimeString, String text) {
+        this(user, parseDateTime(dateTimeString), dateTimeString, text);
+    }
+    
+    /**
+     * Constructor for a message that has already been parsed, such as one
+     * read back from an FBPartitionedStore.
+     * 
+     * @param user the name of the user that sent the message.
+     * @param dateTime the dateTime the message was sent, or null if unknown.
+     * @param dateTimeString the formatted string of the dateTime.
+     * @param text the message's text.
+     */
+    FBMessage(String user, LocalDateTime dateTime, String dateTimeString,
+            String text) {
+        this.user = user;
+        this.dateTime = dateTime;
+        this.dateTimeString = dateTimeString;
+        this.text = text;
+        this.wordCount = new StringTokenizer(text).countTokens();
+    }
+    
+    /**
+     * Constructor for subclasses that hold the dateTime and text themselves.
+     * 
+     * @param user the name of the user that sent the message.
+     * @param dateTimeString the formatted string of the dateTime, or null if
+     * the subclass rebuilds it.
+     * @param wordCount the number of words in the message.
+     */
+    FBMessage(String user, String dateTimeString, int wordCount) {
+        this.user = user;
+        this.dateTimeString = dateTimeString;
+        this.wordCount = wordCount;
+    }
+    
+    /**
+     * Reads the name of the sender from a message's metadata.
+     * 
+     * @param metaData the Element containing the message's metadata.
+     * @return the sender's name.
+     */
+    static String parseUser(Element metaData) {
+        return metaData.children().get(0).getElementsByClass("user").text();
+    }
+    
+    /**
+     * Reads the dateTime string from a message's metadata.
+     * 
+     * @param metaData the Element containing the message's metadata.
+     * @return the dateTime string, with its AM / PM marker capitalized.
+     */
+    static String parseDateTimeString(Element metaData) {
+        return capitalizeTimeOfDay(metaData.children().get(0).
+                getElementsByClass("meta").text());
+    }
+    
+    /**
+     * Parses a dateTime string, ignoring its time zone.
+     * 
+     * @param dateTimeString the dateTime string.
+     * @return the dateTime, or null if the string cannot be parsed.
+     */
+    static LocalDateTime parseDateTime(String dateTimeString) {
         try {
-            DateTimeFormatter DTF = DateTimeFormatter.
-                    ofPattern("EEEE, MMMM d, yyyy 'at' h:mma z");
-            this.dateTime = LocalDateTime.parse(this.dateTimeString, DTF);
+            return LocalDateTime.parse(dateTimeString, DATE_TIME_FORMAT);
         } catch (Exception e) {
             e.printStackTrace();
+            return null;
         }
     }
     
@@ -68,7 +149,7 @@ public class FBMessage implements Serializable {
      * @param dateString
      * @return the corrected dateString.
      */
-    private String capitalizeTimeOfDay(String dateString) {
+    private static String capitalizeTimeOfDay(String dateString) {
         String processedString = dateString.replace("am", "AM");
         processedString = processedString.replace("pm", "PM");
         return processedString;
@@ -81,7 +162,7 @@ public class FBMessage implements Serializable {
      * @return true if there is at least one instance, false otherwise.
      */
     public boolean findWord(String word) {
-        if (this.text.contains(" " + word + " ")) {
+        if (getText().contains(" " + word + " ")) {
             return true;
         }
         return false;
@@ -115,6 +196,29 @@ public class FBMessage implements Serializable {
         return this.dateTimeString;
     }
     
+    /**
+     * Gets the text of this message if it is held as a plain string.
+     * 
+     * @return the text, or null if a subclass holds it elsewhere.
+     */
+    String plainText() {
+        return this.text;
+    }
+    
+    /**
+     * Gets the dateTime string held by this message, without rebuilding it.
+     * 
+     * @return the dateTime string, or null if it is rebuilt on demand.
+     */
+    String storedDateTimeString() {
+        return this.dateTimeString;
+    }
+    
+    /**
+     * Gets the text of this message.
+     * 
+     * @return the message's text.
+     */
     public String getText() {
         return this.text;
     }
@@ -130,7 +234,7 @@ public class FBMessage implements Serializable {
      * @return true if this dateTime is after, false otherwise.
      */
     public boolean isAfter(LocalDateTime dateToCheck) {
-        return this.dateTime.isAfter(dateToCheck);
+        return getDateTime().isAfter(dateToCheck);
     }
     
     /**
@@ -140,7 +244,7 @@ public class FBMessage implements Serializable {
      * @return true if this dateTime is before, false otherwise.
      */
     public boolean isBefore(LocalDateTime dateToCheck) {
-        return this.dateTime.isBefore(dateToCheck);
+        return getDateTime().isBefore(dateToCheck);
     }
     
     /**
@@ -162,7 +266,7 @@ public class FBMessage implements Serializable {
      */
     public int numberOfOccurences(String word) {
         int count = 0;
-        StringTokenizer tokenizer = new StringTokenizer(this.text);
+        StringTokenizer tokenizer = new StringTokenizer(getText());
         while (tokenizer.hasMoreTokens()) {
             if (tokenizer.nextToken().equalsIgnoreCase(word)) {
                 count++;
@@ -177,8 +281,35 @@ public class FBMessage implements Serializable {
      * @return the number of words in this message.
      */
     public int numberOfWords() {
-        StringTokenizer tokenizer = new StringTokenizer(this.text);
-        return tokenizer.countTokens();
+        return this.wordCount;
+    }
+    
+    /**
+     * Returns this message in the form "dateTime user: text".
+     * 
+     * @return the message as a string.
+     */
+    @Override
+    public String toString() {
+        return getDateTimeString() + " " + this.user + ": " + getText();
+    }
+    
+    /**
+     * Restores this message after deserialization. Messages saved before
+     * word counts were stored have their words counted again.
+     */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        this.dateTime = (LocalDateTime) fields.get("dateTime", null);
+        this.dateTimeString = (String) fields.get("dateTimeString", null);
+        this.text = (String) fields.get("text", null);
+        this.user = (String) fields.get("user", null);
+        if (fields.defaulted("wordCount")) {
+            this.wordCount = new StringTokenizer(this.text).countTokens();
+        } else {
+            this.wordCount = fields.get("wordCount", 0);
+        }
     }
     
 }
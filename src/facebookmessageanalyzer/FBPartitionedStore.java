@@ -0,0 +1,619 @@
+package facebookmessageanalyzer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An on-disk copy of an FBAnalyzer split into monthly partitions.
+ * <p>
+ * Each partition file holds the messages of every thread sent in one month.
+ * A manifest records, for each partition, its earliest and latest message
+ * and summary counts. Range queries only open the partitions that overlap
+ * the range, and queries that the summaries can answer do not open any.
+ * Messages whose dateTime could not be parsed are kept in a separate
+ * partition that range queries never match.
+ *
+ * @author Di Tran
+ * @version 0.1
+ */
+public class FBPartitionedStore {
+    
+    /**
+     * The name of the manifest file within the store's directory.
+     */
+    public static final String MANIFEST_NAME = "manifest.ser";
+    
+    /**
+     * The name of the partition holding messages without a dateTime.
+     */
+    private static final String UNDATED_NAME = "undated.part";
+    
+    /**
+     * The extension of partition files.
+     */
+    private static final String PARTITION_SUFFIX = ".part";
+    
+    /**
+     * The extension of files that are still being written.
+     */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    
+    /**
+     * Summary of one partition, stored in the manifest.
+     */
+    public static class Partition implements Serializable {
+        
+        private static final long serialVersionUID = 0x6a09e667f3bcc908L;
+        
+        /**
+         * The name of the partition's file within the store's directory.
+         */
+        private final String fileName;
+        
+        /**
+         * The month of this partition, or null for undated messages.
+         */
+        private final YearMonth month;
+        
+        /**
+         * The dateTime of the earliest message in this partition.
+         */
+        private LocalDateTime minDateTime;
+        
+        /**
+         * The dateTime of the latest message in this partition.
+         */
+        private LocalDateTime maxDateTime;
+        
+        /**
+         * The number of messages in this partition.
+         */
+        private int messageCount;
+        
+        /**
+         * The number of words in this partition.
+         */
+        private long wordCount;
+        
+        /**
+         * The number of messages per thread, indexed as in the analyzer.
+         */
+        private final int[] threadCounts;
+        
+        /**
+         * The number of messages per user.
+         */
+        private final HashMap<String, Integer> userCounts = new HashMap<>();
+        
+        Partition(String fileName, YearMonth month, int threads) {
+            this.fileName = fileName;
+            this.month = month;
+            this.threadCounts = new int[threads];
+        }
+        
+        /**
+         * Adds a message to this partition's summary.
+         */
+        void add(int threadIndex, FBMessage message) {
+            LocalDateTime dateTime = message.getDateTime();
+            if (dateTime != null) {
+                if (minDateTime == null || dateTime.isBefore(minDateTime))
+                    minDateTime = dateTime;
+                if (maxDateTime == null || dateTime.isAfter(maxDateTime))
+                    maxDateTime = dateTime;
+            }
+            messageCount++;
+            wordCount += message.numberOfWords();
+            threadCounts[threadIndex]++;
+            userCounts.merge(message.getUser(), 1, Integer::sum);
+        }
+        
+        /**
+         * Checks if any message of this partition could be strictly between
+         * two dates.
+         */
+        boolean overlaps(LocalDateTime start, LocalDateTime end) {
+            return minDateTime != null && maxDateTime.isAfter(start) &&
+                    minDateTime.isBefore(end);
+        }
+        
+        /**
+         * Checks if every message of this partition is strictly between two
+         * dates.
+         */
+        boolean isBetween(LocalDateTime start, LocalDateTime end) {
+            return minDateTime != null && minDateTime.isAfter(start) &&
+                    maxDateTime.isBefore(end);
+        }
+        
+        public String getFileName() {
+            return fileName;
+        }
+        
+        public YearMonth getMonth() {
+            return month;
+        }
+        
+        public LocalDateTime getMinDateTime() {
+            return minDateTime;
+        }
+        
+        public LocalDateTime getMaxDateTime() {
+            return maxDateTime;
+        }
+        
+        public int numberOfMessages() {
+            return messageCount;
+        }
+        
+        public int numberOfMessages(String user) {
+            return userCounts.getOrDefault(user, 0);
+        }
+        
+        public int numberOfMessagesInThread(int threadIndex) {
+            return threadCounts[threadIndex];
+        }
+        
+        public long numberOfWords() {
+            return wordCount;
+        }
+    }
+    
+    /**
+     * The contents of the manifest file.
+     */
+    private static class Manifest implements Serializable {
+        
+        private static final long serialVersionUID = 0xbb67ae8584caa73bL;
+        
+        /**
+         * The participants of each thread, indexed as in the analyzer.
+         */
+        private final ArrayList<String> participants = new ArrayList<>();
+        
+        /**
+         * The partitions, in chronological order, with undated messages last.
+         */
+        private final ArrayList<Partition> partitions = new ArrayList<>();
+        
+        /**
+         * The activity rollup of the whole analyzer.
+         */
+        private FBActivityRollup rollup;
+    }
+    
+    /**
+     * The directory holding the manifest and partition files.
+     */
+    private final File directory;
+    
+    /**
+     * The manifest of this store.
+     */
+    private final Manifest manifest;
+    
+    /**
+     * Constructor. Opens a store by reading its manifest; no message data is
+     * read until a query needs it.
+     *
+     * @param directory the directory the store was written to.
+     * @throws IOException if the manifest cannot be read.
+     */
+    public FBPartitionedStore(File directory) throws IOException {
+        File manifestFile = new File(directory, MANIFEST_NAME);
+        if (!manifestFile.exists())
+            throw new FileNotFoundException(manifestFile.getPath());
+        this.directory = directory;
+        
+        try (ObjectInputStream input = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(manifestFile)))) {
+            this.manifest = (Manifest) input.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("invalid manifest " + manifestFile, e);
+        }
+    }
+    
+    /**
+     * Writes an analyzer into a directory as monthly partitions and a
+     * manifest, replacing any store already in the directory.
+     * <p>
+     * Messages are first grouped by month, then each partition is written in
+     * turn, so only one partition file is open at a time. The old manifest is
+     * deleted before any partition is replaced and the new one is written
+     * last, so a failed write never leaves a manifest that disagrees with
+     * its partitions. Files are written under temporary names and renamed
+     * once complete. Partitions named by the old manifest that are not part
+     * of the new store are removed; no other file in the directory is
+     * touched.
+     *
+     * @param analyzer the analyzer to write.
+     * @param directory the directory to write to.
+     * @throws IOException if a file cannot be written.
+     */
+    public static void write(FBAnalyzer analyzer, File directory)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("cannot create " + directory);
+        
+        int threadCount = analyzer.numberOfThreads();
+        Manifest manifest = new Manifest();
+        manifest.rollup = analyzer.getActivityRollup();
+        TreeMap<YearMonth, Partition> dated = new TreeMap<>();
+        Partition undated = null;
+        Map<Partition, Positions> positions = new HashMap<>();
+        
+        // group the messages by month, keeping only their positions.
+        for (int i = 0; i < threadCount; i++) {
+            FBThread thread = analyzer.getThread(i);
+            manifest.participants.add(thread.getParticipants());
+            List<FBMessage> messages = thread.getFBMessages();
+            for (int j = 0; j < messages.size(); j++) {
+                FBMessage message = messages.get(j);
+                Partition partition;
+                if (message.getDateTime() == null) {
+                    if (undated == null)
+                        undated = new Partition(UNDATED_NAME, null, threadCount);
+                    partition = undated;
+                } else {
+                    YearMonth month = YearMonth.from(message.getDateTime());
+                    partition = dated.get(month);
+                    if (partition == null) {
+                        partition = new Partition(month + PARTITION_SUFFIX,
+                                month, threadCount);
+                        dated.put(month, partition);
+                    }
+                }
+                
+                Positions list = positions.get(partition);
+                if (list == null) {
+                    list = new Positions();
+                    positions.put(partition, list);
+                }
+                list.add(i, j);
+                partition.add(i, message);
+            }
+        }
+        manifest.partitions.addAll(dated.values());
+        if (undated != null)
+            manifest.partitions.add(undated);
+        
+        // note the partitions of the old store before its manifest goes.
+        File manifestFile = new File(directory, MANIFEST_NAME);
+        Set<String> previous = new HashSet<>();
+        if (manifestFile.exists()) {
+            try {
+                for (Partition partition :
+                        new FBPartitionedStore(directory).getPartitions()) {
+                    previous.add(partition.fileName);
+                }
+            } catch (IOException e) {
+                // an unreadable manifest leaves its partitions in place.
+            }
+        }
+        Files.deleteIfExists(manifestFile.toPath());
+        
+        for (Partition partition : manifest.partitions) {
+            File temporary = new File(directory,
+                    partition.fileName + TEMPORARY_SUFFIX);
+            Positions list = positions.get(partition);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new GZIPOutputStream(
+                    new FileOutputStream(temporary))))) {
+                for (int k = 0; k < list.size; k++) {
+                    int threadIndex = (int) (list.items[k] >>> 32);
+                    int messageIndex = (int) list.items[k];
+                    writeMessage(out, threadIndex, messageIndex, analyzer.
+                            getThread(threadIndex).getFBMessage(messageIndex));
+                }
+            }
+            replace(temporary, new File(directory, partition.fileName));
+        }
+        
+        File temporary = new File(directory, MANIFEST_NAME + TEMPORARY_SUFFIX);
+        try (ObjectOutputStream output = new ObjectOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            output.writeObject(manifest);
+        }
+        replace(temporary, manifestFile);
+        
+        // remove partitions of the old store that are not reused.
+        for (Partition partition : manifest.partitions) {
+            previous.remove(partition.fileName);
+        }
+        for (String fileName : previous) {
+            Files.deleteIfExists(new File(directory, fileName).toPath());
+        }
+    }
+    
+    /**
+     * Moves a completely written file over its final name.
+     */
+    private static void replace(File temporary, File target) throws IOException {
+        Files.move(temporary.toPath(), target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    /**
+     * The positions of a partition's messages, each packed as the thread
+     * index in the high bits and the message index in the low bits.
+     */
+    private static class Positions {
+        
+        private long[] items = new long[64];
+        
+        private int size;
+        
+        void add(int threadIndex, int messageIndex) {
+            if (size == items.length)
+                items = Arrays.copyOf(items, size * 2);
+            items[size++] = ((long) threadIndex << 32) | messageIndex;
+        }
+    }
+    
+    /**
+     * Returns the summaries of all partitions, in chronological order.
+     *
+     * @return the partitions of this store.
+     */
+    public List<Partition> getPartitions() {
+        return Collections.unmodifiableList(manifest.partitions);
+    }
+    
+    /**
+     * Returns the activity rollup of the whole store, read from the manifest.
+     * 
+     * @return the activity rollup.
+     */
+    public FBActivityRollup getActivityRollup() {
+        return manifest.rollup;
+    }
+    
+    /**
+     * Returns the total number of threads, read from the manifest.
+     *
+     * @return the total number of threads.
+     */
+    public int numberOfThreads() {
+        return manifest.participants.size();
+    }
+    
+    /**
+     * Returns the total number of messages, read from the manifest.
+     *
+     * @return the number of messages sent and received.
+     */
+    public int numberOfMessages() {
+        int count = 0;
+        for (Partition partition : manifest.partitions) {
+            count += partition.messageCount;
+        }
+        return count;
+    }
+    
+    /**
+     * Returns the number of messages sent by a particular user, read from the
+     * manifest.
+     *
+     * @param user The user owning the messages
+     * @return The number of messages sent by user.
+     */
+    public int numberOfMessages(String user) {
+        int count = 0;
+        for (Partition partition : manifest.partitions) {
+            count += partition.numberOfMessages(user);
+        }
+        return count;
+    }
+    
+    /**
+     * Returns the number of messages strictly between two dates, as
+     * FBMessage.isBetween. Partitions entirely inside the range are counted
+     * from the manifest; only partitions on the edges of the range are read.
+     *
+     * @param start The starting date.
+     * @param end The end date
+     * @return the number of messages in between the start &amp; end date.
+     * @throws IOException if a partition cannot be read.
+     */
+    public int numberOfMessages(LocalDateTime start, LocalDateTime end)
+            throws IOException {
+        return numberOfMessages(-1, start, end);
+    }
+    
+    /**
+     * Returns the number of messages of one thread strictly between two
+     * dates, as FBThread.numberOfMessages(start, end).
+     *
+     * @param threadIndex the index of the thread in the analyzer.
+     * @param start The starting date.
+     * @param end The end date
+     * @return the number of messages in between the start &amp; end date.
+     * @throws IOException if a partition cannot be read.
+     */
+    public int numberOfMessages(int threadIndex, LocalDateTime start,
+            LocalDateTime end) throws IOException {
+        int count = 0;
+        for (Partition partition : manifest.partitions) {
+            if (partition.isBetween(start, end)) {
+                count += threadIndex < 0 ? partition.messageCount
+                        : partition.threadCounts[threadIndex];
+            } else if (partition.overlaps(start, end) && (threadIndex < 0 ||
+                    partition.threadCounts[threadIndex] > 0)) {
+                for (StoredMessage stored : readPartition(partition)) {
+                    if ((threadIndex < 0 || stored.threadIndex == threadIndex)
+                            && stored.message.isBetween(start, end)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Returns the total number of words, read from the manifest.
+     *
+     * @return the number of words.
+     */
+    public long numberOfWords() {
+        long count = 0;
+        for (Partition partition : manifest.partitions) {
+            count += partition.wordCount;
+        }
+        return count;
+    }
+    
+    /**
+     * Loads an analyzer holding only the messages strictly between two dates.
+     * Only partitions overlapping the range are read. Every thread is
+     * present, even if none of its messages are in the range.
+     *
+     * @param start The starting date.
+     * @param end The end date
+     * @return an analyzer with the messages in between the start &amp; end date.
+     * @throws IOException if a partition cannot be read.
+     */
+    public FBAnalyzer load(LocalDateTime start, LocalDateTime end)
+            throws IOException {
+        int threadCount = manifest.participants.size();
+        List<List<StoredMessage>> byThread = new ArrayList<>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            byThread.add(new ArrayList<>());
+        }
+        
+        for (Partition partition : manifest.partitions) {
+            if (!partition.overlaps(start, end))
+                continue;
+            for (StoredMessage stored : readPartition(partition)) {
+                if (stored.message.isBetween(start, end))
+                    byThread.get(stored.threadIndex).add(stored);
+            }
+        }
+        
+        List<FBThread> threads = new ArrayList<>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            List<StoredMessage> stored = byThread.get(i);
+            Collections.sort(stored, (o1, o2) ->
+                    Integer.compare(o1.messageIndex, o2.messageIndex));
+            ArrayList<FBMessage> messages = new ArrayList<>(stored.size());
+            for (StoredMessage s : stored) {
+                messages.add(s.message);
+            }
+            threads.add(new FBThread(manifest.participants.get(i), messages));
+        }
+        return new FBAnalyzer(threads);
+    }
+    
+    /**
+     * A message read from a partition, with its position in the analyzer.
+     */
+    private static class StoredMessage {
+        
+        private final int threadIndex;
+        
+        private final int messageIndex;
+        
+        private final FBMessage message;
+        
+        StoredMessage(int threadIndex, int messageIndex, FBMessage message) {
+            this.threadIndex = threadIndex;
+            this.messageIndex = messageIndex;
+            this.message = message;
+        }
+    }
+    
+    /**
+     * Reads every message of a partition.
+     */
+    private List<StoredMessage> readPartition(Partition partition)
+            throws IOException {
+        List<StoredMessage> list = new ArrayList<>(partition.messageCount);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(
+                new File(directory, partition.fileName)))))) {
+            for (int i = 0; i < partition.messageCount; i++) {
+                int threadIndex = in.readInt();
+                int messageIndex = in.readInt();
+                LocalDateTime dateTime = null;
+                if (in.readBoolean())
+                    dateTime = LocalDateTime.ofEpochSecond(in.readLong(),
+                            in.readInt(), ZoneOffset.UTC);
+                String dateTimeString = readString(in);
+                String user = readString(in);
+                String text = readString(in);
+                list.add(new StoredMessage(threadIndex, messageIndex,
+                        new FBMessage(user, dateTime, dateTimeString, text)));
+            }
+        } catch (EOFException e) {
+            throw new IOException("truncated partition " + partition.fileName, e);
+        }
+        return list;
+    }
+    
+    /**
+     * Writes one message to a partition. The dateTime is stored as its
+     * epoch second, treating the local time as UTC.
+     */
+    private static void writeMessage(DataOutputStream out, int threadIndex,
+            int messageIndex, FBMessage message) throws IOException {
+        out.writeInt(threadIndex);
+        out.writeInt(messageIndex);
+        LocalDateTime dateTime = message.getDateTime();
+        out.writeBoolean(dateTime != null);
+        if (dateTime != null) {
+            out.writeLong(dateTime.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(dateTime.getNano());
+        }
+        writeString(out, message.getDateTimeString());
+        writeString(out, message.getUser());
+        writeString(out, message.getText());
+    }
+    
+    /**
+     * Writes a string as its UTF-8 length and bytes. Unlike writeUTF, this
+     * has no 64KB limit.
+     */
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    /**
+     * Reads a string written by writeString.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
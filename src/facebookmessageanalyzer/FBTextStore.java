@@ -0,0 +1,312 @@
+package facebookmessageanalyzer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed storage for the text of many FBMessages.
+ * <p>
+ * Message texts are appended as UTF-8 into an open block. Once the block
+ * grows past the block size it is sealed and compressed with Deflate, so
+ * that many small messages share one dictionary. Reading a text inflates its
+ * whole block; a small least-recently-used cache of inflated blocks keeps
+ * sequential scans over a thread from inflating the same block repeatedly.
+ *
+ * @author Di Tran
+ * @version 0.1
+ */
+public class FBTextStore implements Serializable {
+    
+    /**
+     * The serial version ID of this store, used for serialization.
+     */
+    private static final long serialVersionUID = 0x2b7e151628aed2a6L;
+    
+    /**
+     * The default number of uncompressed bytes per block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    
+    /**
+     * The default number of inflated blocks kept in the cache.
+     */
+    public static final int DEFAULT_CACHE_BLOCKS = 8;
+    
+    /**
+     * The number of uncompressed bytes after which a block is sealed.
+     */
+    private final int blockSize;
+    
+    /**
+     * The number of inflated blocks kept in the cache.
+     */
+    private final int cacheBlocks;
+    
+    /**
+     * The sealed, compressed blocks.
+     */
+    private final List<byte[]> blocks = new ArrayList<>();
+    
+    /**
+     * The uncompressed length of each sealed block.
+     */
+    private int[] blockLengths = new int[16];
+    
+    /**
+     * The id of the first text stored in each block, followed by the id of
+     * the first text after the last sealed block.
+     */
+    private int[] blockFirstIds = new int[16];
+    
+    /**
+     * The byte offset of each text within its block. The text ends where the
+     * next text in the same block begins, or at the end of the block.
+     */
+    private int[] offsets = new int[1024];
+    
+    /**
+     * The number of texts in this store.
+     */
+    private int size;
+    
+    /**
+     * The block currently being appended to.
+     */
+    private transient ByteArrayOutputStream openBlock = new ByteArrayOutputStream();
+    
+    /**
+     * The id of the first text in the open block.
+     */
+    private int openFirstId;
+    
+    /**
+     * The inflated blocks, in least-recently-used order.
+     */
+    private transient Map<Integer, byte[]> cache;
+    
+    /**
+     * Default constructor. Uses the default block and cache sizes.
+     */
+    public FBTextStore() {
+        this(DEFAULT_BLOCK_SIZE, DEFAULT_CACHE_BLOCKS);
+    }
+    
+    /**
+     * Constructor with a specified block and cache size.
+     *
+     * @param blockSize the number of uncompressed bytes per block.
+     * @param cacheBlocks the number of inflated blocks to cache.
+     */
+    public FBTextStore(int blockSize, int cacheBlocks) {
+        if (blockSize <= 0 || cacheBlocks <= 0)
+            throw new IllegalArgumentException("sizes must be positive");
+        this.blockSize = blockSize;
+        this.cacheBlocks = cacheBlocks;
+        this.cache = newCache();
+    }
+    
+    /**
+     * Appends a text to this store.
+     *
+     * @param text the text to store.
+     * @return the id used to retrieve the text.
+     */
+    public synchronized int add(String text) {
+        if (size == offsets.length)
+            offsets = Arrays.copyOf(offsets, size * 2);
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        offsets[size] = openBlock.size();
+        openBlock.write(bytes, 0, bytes.length);
+        size++;
+        if (openBlock.size() >= blockSize)
+            seal();
+        return size - 1;
+    }
+    
+    /**
+     * Retrieves a text, inflating its block if it is not cached.
+     *
+     * @param id the id returned when the text was added.
+     * @return the stored text.
+     */
+    public synchronized String get(int id) {
+        if (id < 0 || id >= size)
+            throw new IndexOutOfBoundsException("id: " + id);
+        
+        if (id >= openFirstId) {
+            byte[] bytes = openBlock.toByteArray();
+            int end = id + 1 < size ? offsets[id + 1] : bytes.length;
+            return new String(bytes, offsets[id], end - offsets[id],
+                    StandardCharsets.UTF_8);
+        }
+        
+        int block = blockOf(id);
+        byte[] bytes = cache.get(block);
+        if (bytes == null) {
+            bytes = inflate(block);
+            cache.put(block, bytes);
+        }
+        int end = id + 1 < blockFirstIds[block + 1]
+                ? offsets[id + 1] : blockLengths[block];
+        return new String(bytes, offsets[id], end - offsets[id],
+                StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Compresses the open block, if it holds any text. Called once parsing
+     * is done so that the tail of the archive is compressed as well.
+     */
+    public synchronized void seal() {
+        if (openFirstId == size)
+            return;
+        int block = blocks.size();
+        if (block + 1 >= blockFirstIds.length) {
+            blockFirstIds = Arrays.copyOf(blockFirstIds, blockFirstIds.length * 2);
+            blockLengths = Arrays.copyOf(blockLengths, blockLengths.length * 2);
+        }
+        byte[] raw = openBlock.toByteArray();
+        blocks.add(deflate(raw));
+        blockLengths[block] = raw.length;
+        blockFirstIds[block] = openFirstId;
+        blockFirstIds[block + 1] = size;
+        openFirstId = size;
+        openBlock = new ByteArrayOutputStream();
+    }
+    
+    /**
+     * Returns the number of texts in this store.
+     *
+     * @return the number of texts.
+     */
+    public synchronized int size() {
+        return size;
+    }
+    
+    /**
+     * Returns the number of bytes held by the compressed blocks and the open
+     * block.
+     *
+     * @return the number of stored bytes.
+     */
+    public synchronized long compressedBytes() {
+        long total = openBlock.size();
+        for (byte[] block : blocks) {
+            total += block.length;
+        }
+        return total;
+    }
+    
+    /**
+     * Returns the number of bytes held by the inflated block cache.
+     *
+     * @return the number of cached bytes.
+     */
+    public synchronized long cachedBytes() {
+        long total = 0;
+        for (byte[] block : cache.values()) {
+            total += block.length;
+        }
+        return total;
+    }
+    
+    /**
+     * Finds the sealed block containing a text.
+     *
+     * @param id the id of the text.
+     * @return the index of the block.
+     */
+    private int blockOf(int id) {
+        int index = Arrays.binarySearch(blockFirstIds, 0, blocks.size(), id);
+        return index >= 0 ? index : -index - 2;
+    }
+    
+    /**
+     * Compresses a block.
+     *
+     * @param raw the uncompressed bytes.
+     * @return the compressed bytes.
+     */
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 3 + 16);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+    
+    /**
+     * Decompresses a sealed block.
+     *
+     * @param block the index of the block.
+     * @return the uncompressed bytes.
+     */
+    private byte[] inflate(int block) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(blocks.get(block));
+        byte[] raw = new byte[blockLengths[block]];
+        try {
+            int n = 0;
+            while (n < raw.length && !inflater.finished()) {
+                n += inflater.inflate(raw, n, raw.length - n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("corrupt text block " + block, e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+    
+    /**
+     * Creates an empty least-recently-used block cache.
+     *
+     * @return the cache.
+     */
+    private Map<Integer, byte[]> newCache() {
+        return new LinkedHashMap<Integer, byte[]>(cacheBlocks * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                return size() > cacheBlocks;
+            }
+        };
+    }
+    
+    /**
+     * Writes this store, including the uncompressed open block.
+     */
+    private synchronized void writeObject(ObjectOutputStream out)
+            throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(openBlock.toByteArray());
+    }
+    
+    /**
+     * Restores the open block and the transient cache after deserialization.
+     */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        byte[] open = (byte[]) in.readObject();
+        this.openBlock = new ByteArrayOutputStream(Math.max(open.length, 32));
+        this.openBlock.write(open, 0, open.length);
+        this.cache = newCache();
+    }
+}
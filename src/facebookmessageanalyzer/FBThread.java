@@ -19,6 +19,12 @@ import org.jsoup.select.Elements;
  * @version 0.1
  */
 public class FBThread implements Serializable {
+    /**
+     * The serial version ID of this thread, used for serialization. Pinned
+     * to the value of version 0.1 so that earlier saves still load.
+     */
+    private static final long serialVersionUID = 9037154951756711261L;
+    
     /**
      * The list of messages in this thread.
      */
@@ -43,16 +49,44 @@ public class FBThread implements Serializable {
      * @param thread the HTM element containing the thread data. 
      */
     public FBThread(Element thread) {
+        this(thread, null);
+    }
+    
+    /**
+     * Constructor storing message text in a compressed text store.
+     * 
+     * @param thread the HTM element containing the thread data. 
+     * @param textStore the store to hold message text, or null to keep text
+     * as plain strings.
+     */
+    public FBThread(Element thread, FBTextStore textStore) {
         this.participants = thread.ownText();
         this.thread = new ArrayList<FBMessage>();
         
         Elements threadData = thread.children();
         assert(threadData.size() > 0 && threadData.size() % 2 == 0);
         for (int i = 1; i <= threadData.size(); i+=2) {
-            this.thread.add(new FBMessage(threadData.get(i-1), threadData.get(i)));
+            if (textStore == null) {
+                this.thread.add(new FBMessage(threadData.get(i-1),
+                        threadData.get(i)));
+            } else {
+                this.thread.add(new FBCompactMessage(threadData.get(i-1),
+                        threadData.get(i), textStore));
+            }
         }
     }
     
+    /**
+     * Constructor for a thread whose messages have already been parsed.
+     * 
+     * @param participants the set of participants in the thread.
+     * @param messages the messages of the thread, in their original order.
+     */
+    FBThread(String participants, ArrayList<FBMessage> messages) {
+        this.participants = participants;
+        this.thread = messages;
+    }
+    
     /**
      * Calculates and returns the average number of words sent per message.
      * 
@@ -79,6 +113,43 @@ public class FBThread implements Serializable {
         return Duration.ofSeconds(totalSeconds);
     }
     
+    /**
+     * Computes approximate word and correspondent statistics over this
+     * thread's messages using fixed memory.
+     * 
+     * @param topK the number of word counters kept.
+     * @param precision the HyperLogLog precision, between 4 and 18.
+     * @return the approximate statistics.
+     */
+    public FBApproximateStatistics approximateStatistics(int topK, int precision) {
+        FBApproximateStatistics stats = new FBApproximateStatistics(topK, precision);
+        for (FBMessage message : thread) {
+            stats.add(message);
+        }
+        return stats;
+    }
+    
+    /**
+     * Computes approximate word and correspondent statistics over this
+     * thread's messages between two dates.
+     * 
+     * @param topK the number of word counters kept.
+     * @param precision the HyperLogLog precision, between 4 and 18.
+     * @param start The starting date.
+     * @param end The end date
+     * @return the approximate statistics.
+     */
+    public FBApproximateStatistics approximateStatistics(int topK, int precision,
+            LocalDateTime start, LocalDateTime end) {
+        FBApproximateStatistics stats = new FBApproximateStatistics(topK, precision);
+        for (FBMessage message : thread) {
+            if (message.isBetween(start, end)) {
+                stats.add(message);
+            }
+        }
+        return stats;
+    }
+    
     /**
      * Checks if an instance of a word has occurred in any of the thread's 
      * messages.
@@ -0,0 +1,147 @@
+package facebookmessageanalyzer;
+
+import java.io.Serializable;
+
+/**
+ * Estimates the number of distinct strings seen, using a fixed amount of
+ * memory.
+ * <p>
+ * A HyperLogLog with precision p keeps 2^p one-byte registers, and its
+ * estimate has a relative standard error of about 1.04 / sqrt(2^p). Two
+ * HyperLogLogs of the same precision can be merged, giving the estimate for
+ * the union of what both have seen.
+ *
+ * @author Di Tran
+ * @version 0.1
+ */
+public class HyperLogLog implements Serializable {
+    
+    /**
+     * The serial version ID of this sketch, used for serialization.
+     */
+    private static final long serialVersionUID = 0x3c6ef372fe94f82bL;
+    
+    /**
+     * The number of index bits taken from each hash.
+     */
+    private final int precision;
+    
+    /**
+     * The registers, each holding the longest run of leading zeroes seen.
+     */
+    private final byte[] registers;
+    
+    /**
+     * Constructor with a specified precision.
+     *
+     * @param precision the number of index bits, between 4 and 18.
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18)
+            throw new IllegalArgumentException("precision: " + precision);
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+    
+    /**
+     * Records a string.
+     *
+     * @param value the string to record.
+     */
+    public void add(String value) {
+        long hash = hash64(value);
+        int index = (int) (hash >>> (64 - precision));
+        int rank = Long.numberOfLeadingZeros((hash << precision) |
+                (1L << (precision - 1))) + 1;
+        if (rank > registers[index])
+            registers[index] = (byte) rank;
+    }
+    
+    /**
+     * Returns the estimated number of distinct strings recorded.
+     *
+     * @return the estimated distinct count.
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeroes = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0)
+                zeroes++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double raw = alpha * m * m / sum;
+        
+        // linear counting is more accurate for small cardinalities.
+        if (raw <= 2.5 * m && zeroes > 0)
+            return Math.round(m * Math.log((double) m / zeroes));
+        return Math.round(raw);
+    }
+    
+    /**
+     * Returns the relative standard error of the estimate.
+     *
+     * @return the standard error as a fraction of the estimate.
+     */
+    public double standardError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+    
+    /**
+     * Returns the precision of this sketch.
+     *
+     * @return the number of index bits.
+     */
+    public int getPrecision() {
+        return precision;
+    }
+    
+    /**
+     * Merges another sketch into this one.
+     *
+     * @param other a sketch with the same precision.
+     * @return this sketch.
+     */
+    public HyperLogLog merge(HyperLogLog other) {
+        if (other.precision != precision)
+            throw new IllegalArgumentException("precision mismatch: " +
+                    precision + " and " + other.precision);
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+        }
+        return this;
+    }
+    
+    /**
+     * Returns the number of bytes held by the registers.
+     *
+     * @return the size of the registers in bytes.
+     */
+    public int sizeInBytes() {
+        return registers.length;
+    }
+    
+    /**
+     * Hashes a string to 64 bits. The chars are combined with FNV-1a and
+     * then mixed so that every output bit depends on every input bit.
+     *
+     * @param value the string to hash.
+     * @return the 64-bit hash.
+     */
+    static long hash64(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
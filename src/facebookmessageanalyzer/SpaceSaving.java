@@ -0,0 +1,303 @@
+package facebookmessageanalyzer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the most frequent strings in a stream, using a fixed number of
+ * counters.
+ * <p>
+ * Implements the Space-Saving algorithm. When every counter is in use, a new
+ * string replaces the smallest counter and inherits its count as error. Each
+ * reported count is therefore an overestimate by at most its error, and any
+ * string that is not reported occurred at most minCount() times. Summaries
+ * of the same capacity can be merged.
+ *
+ * @author Di Tran
+ * @version 0.1
+ */
+public class SpaceSaving implements Serializable {
+    
+    /**
+     * The serial version ID of this sketch, used for serialization.
+     */
+    private static final long serialVersionUID = 0xa54ff53a5f1d36f1L;
+    
+    /**
+     * The maximum number of counters.
+     */
+    private final int capacity;
+    
+    /**
+     * The number of counters in use.
+     */
+    private int size;
+    
+    /**
+     * The strings being counted, kept as a min-heap ordered by count.
+     */
+    private final String[] keys;
+    
+    /**
+     * The count of each string in the heap.
+     */
+    private final long[] counts;
+    
+    /**
+     * The maximum overestimate of each count in the heap.
+     */
+    private final long[] errors;
+    
+    /**
+     * The heap position of each string being counted.
+     */
+    private final HashMap<String, Integer> positions;
+    
+    /**
+     * The total number of strings offered.
+     */
+    private long total;
+    
+    /**
+     * A string with its estimated count and error bound.
+     */
+    public static class Estimate implements Serializable {
+        
+        private static final long serialVersionUID = 0x510e527fade682d1L;
+        
+        /**
+         * The string being counted.
+         */
+        private final String key;
+        
+        /**
+         * The estimated count, never less than the true count.
+         */
+        private final long count;
+        
+        /**
+         * The maximum amount by which the count overestimates.
+         */
+        private final long error;
+        
+        Estimate(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+        
+        public String getKey() {
+            return key;
+        }
+        
+        public long getCount() {
+            return count;
+        }
+        
+        public long getError() {
+            return error;
+        }
+        
+        /**
+         * Returns the smallest count the string could actually have.
+         *
+         * @return the guaranteed count.
+         */
+        public long getLowerBound() {
+            return count - error;
+        }
+        
+        @Override
+        public String toString() {
+            return key + ": " + count + " (at most " + error + " too high)";
+        }
+    }
+    
+    /**
+     * Constructor with a specified number of counters.
+     *
+     * @param capacity the number of counters.
+     */
+    public SpaceSaving(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity: " + capacity);
+        this.capacity = capacity;
+        this.keys = new String[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.positions = new HashMap<>(capacity * 2);
+    }
+    
+    /**
+     * Records one occurrence of a string.
+     *
+     * @param key the string to record.
+     */
+    public void offer(String key) {
+        total++;
+        Integer position = positions.get(key);
+        if (position != null) {
+            counts[position]++;
+            siftDown(position);
+        } else if (size < capacity) {
+            place(size, key, 1, 0);
+            size++;
+            siftUp(size - 1);
+        } else {
+            long min = counts[0];
+            positions.remove(keys[0]);
+            place(0, key, min + 1, min);
+            siftDown(0);
+        }
+    }
+    
+    /**
+     * Returns the count below which strings may be missing from this
+     * summary. Zero if no string has ever been evicted.
+     *
+     * @return the smallest count in use, or zero if counters are free.
+     */
+    public long minCount() {
+        return size < capacity ? 0 : counts[0];
+    }
+    
+    /**
+     * Returns the total number of strings offered.
+     *
+     * @return the total count.
+     */
+    public long getTotal() {
+        return total;
+    }
+    
+    /**
+     * Returns the number of counters of this summary.
+     *
+     * @return the capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * Returns the most frequent strings, most frequent first.
+     *
+     * @param n the maximum number of strings to return.
+     * @return the estimates of the most frequent strings.
+     */
+    public List<Estimate> top(int n) {
+        List<Estimate> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(new Estimate(keys[i], counts[i], errors[i]));
+        }
+        Collections.sort(list, (o1, o2) -> Long.compare(o2.count, o1.count));
+        return list.subList(0, Math.min(n, list.size()));
+    }
+    
+    /**
+     * Merges another summary into this one. A string missing from one of the
+     * summaries is given that summary's minCount() as both count and error.
+     *
+     * @param other a summary with the same capacity.
+     * @return this summary.
+     */
+    public SpaceSaving merge(SpaceSaving other) {
+        if (other.capacity != capacity)
+            throw new IllegalArgumentException("capacity mismatch: " +
+                    capacity + " and " + other.capacity);
+        long thisMin = minCount();
+        long otherMin = other.minCount();
+        
+        Map<String, long[]> merged = new HashMap<>(capacity * 4);
+        for (int i = 0; i < size; i++) {
+            Integer position = other.positions.get(keys[i]);
+            if (position == null) {
+                merged.put(keys[i], new long[] {counts[i] + otherMin,
+                        errors[i] + otherMin});
+            } else {
+                merged.put(keys[i], new long[] {counts[i] + other.counts[position],
+                        errors[i] + other.errors[position]});
+            }
+        }
+        for (int i = 0; i < other.size; i++) {
+            if (!positions.containsKey(other.keys[i])) {
+                merged.put(other.keys[i], new long[] {other.counts[i] + thisMin,
+                        other.errors[i] + thisMin});
+            }
+        }
+        
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(merged.entrySet());
+        Collections.sort(entries, (o1, o2) -> Long.compare(o2.getValue()[0],
+                o1.getValue()[0]));
+        
+        long mergedTotal = total + other.total;
+        positions.clear();
+        size = 0;
+        for (Map.Entry<String, long[]> entry : entries) {
+            if (size == capacity)
+                break;
+            place(size, entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+            size++;
+            siftUp(size - 1);
+        }
+        total = mergedTotal;
+        return this;
+    }
+    
+    /**
+     * Stores a counter at a heap position.
+     */
+    private void place(int position, String key, long count, long error) {
+        keys[position] = key;
+        counts[position] = count;
+        errors[position] = error;
+        positions.put(key, position);
+    }
+    
+    /**
+     * Swaps two heap positions.
+     */
+    private void swap(int a, int b) {
+        String key = keys[a];
+        long count = counts[a];
+        long error = errors[a];
+        place(a, keys[b], counts[b], errors[b]);
+        place(b, key, count, error);
+    }
+    
+    /**
+     * Moves a counter towards the root while it is smaller than its parent.
+     */
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (counts[parent] <= counts[position])
+                return;
+            swap(parent, position);
+            position = parent;
+        }
+    }
+    
+    /**
+     * Moves a counter towards the leaves while it is larger than a child.
+     */
+    private void siftDown(int position) {
+        while (true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < size && counts[left] < counts[smallest])
+                smallest = left;
+            if (right < size && counts[right] < counts[smallest])
+                smallest = right;
+            if (smallest == position)
+                return;
+            swap(smallest, position);
+            position = smallest;
+        }
+    }
+}